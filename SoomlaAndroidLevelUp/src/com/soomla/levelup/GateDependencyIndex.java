@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The reverse dependencies of the model's gates: for every score, world and
+ * virtual item, the gates whose opening depends on it, and for every gates
+ * list, the gates it's made of.  Gates are referred to by their ordinal in
+ * <code>LevelUpModelIndex.getGates()</code>.
+ * <p/>
+ * The record gates of every score are also kept sorted by their desired
+ * record, so the gates crossed by a new record are found by binary search,
+ * and every gates list is compiled into a <code>GatesListProgram</code>.
+ * <p/>
+ * Obtain it with <code>LevelUpModel.getGateDependencies()</code>.
+ */
+public class GateDependencyIndex {
+
+    /**
+     * Retrieves the gates that depend on the given entity: record gates for
+     * a score and world completion gates for a world.
+     *
+     * @param kind the kind of the entity, <code>SCORE</code> or <code>WORLD</code>
+     * @param itemId the id of the entity
+     * @return the ordinals of the dependent gates, empty if there are none
+     */
+    public int[] getDependentGates(EntityKind kind, String itemId) {
+        Map<String, int[]> dependents;
+        switch (kind) {
+            case SCORE:
+                dependents = mScoreDependents;
+                break;
+            case WORLD:
+                dependents = mWorldDependents;
+                break;
+            default:
+                return NONE;
+        }
+
+        int[] gates = dependents.get(itemId);
+        return gates != null ? gates : NONE;
+    }
+
+    /**
+     * Finds the record gates of the given score whose desired record lies
+     * between the old and the new record, so a change of record is checked
+     * with two binary searches instead of against every gate of the score.
+     * The score's <code>higherBetter</code> flag decides the direction.
+     *
+     * @param scoreId the id of the score
+     * @param oldRecord the record before the change, <code>-1</code> if it wasn't set
+     * @param newRecord the record after the change
+     * @return the ordinals of the crossed gates, in the order their desired
+     * records are reached
+     */
+    public int[] getCrossedRecordGates(String scoreId, double oldRecord, double newRecord) {
+        RecordThresholds thresholds = mRecordThresholds.get(scoreId);
+        if (thresholds == null) {
+            return NONE;
+        }
+
+        double[] records = thresholds.desiredRecords;
+        if (thresholds.higherBetter) {
+            // reached are the thresholds in (old, new]
+            int from = oldRecord == -1 ? 0 : upperBound(records, oldRecord);
+            int to = upperBound(records, newRecord);
+            return from < to ? Arrays.copyOfRange(thresholds.gates, from, to) : NONE;
+        }
+
+        // reached are the thresholds in [new, old), lowest last
+        int from = lowerBound(records, newRecord);
+        int to = oldRecord == -1 ? records.length : lowerBound(records, oldRecord);
+        int[] crossed = new int[Math.max(to - from, 0)];
+        for (int i = 0; i < crossed.length; i++) {
+            crossed[i] = thresholds.gates[to - 1 - i];
+        }
+        return crossed;
+    }
+
+    /**
+     * Retrieves the balance and purchasable gates of the given virtual item.
+     *
+     * @param itemId the id of the virtual item
+     * @return the ordinals of the dependent gates, empty if there are none
+     */
+    public int[] getItemDependentGates(String itemId) {
+        int[] gates = mItemDependents.get(itemId);
+        return gates != null ? gates : NONE;
+    }
+
+    /**
+     * @param listGate the ordinal of a gates list
+     * @return the ordinals of the gates in the list, empty if it's not a list
+     */
+    public int[] getChildGates(int listGate) {
+        int[] gates = mChildren.get(listGate);
+        return gates != null ? gates : NONE;
+    }
+
+    /**
+     * Retrieves the compiled program of the given gates list, compiling it
+     * the first time it's needed.
+     *
+     * @param listGate the ordinal of a gates list
+     * @return the list's program, or <code>null</code> if the gate isn't a list
+     */
+    public synchronized GatesListProgram getGatesListProgram(int listGate) {
+        if (!mIndex.getGates().getModelClass(listGate).isGatesList()) {
+            return null;
+        }
+
+        GatesListProgram program = mPrograms.get(listGate);
+        if (program == null) {
+            program = GatesListProgram.compile(mIndex, this, listGate);
+            mPrograms.put(listGate, program);
+        }
+        return program;
+    }
+
+    /**
+     * Indexes the gates of the given model.
+     *
+     * @param index the compiled model
+     * @return the dependency index
+     */
+    public static GateDependencyIndex build(LevelUpModelIndex index) {
+        HashMap<String, List<Integer>> scoreDependents = new HashMap<String, List<Integer>>();
+        HashMap<String, List<Integer>> worldDependents = new HashMap<String, List<Integer>>();
+        HashMap<String, List<Integer>> itemDependents = new HashMap<String, List<Integer>>();
+        HashMap<Integer, List<Integer>> children = new HashMap<Integer, List<Integer>>();
+
+        LevelUpModelIndex.EntityTable gates = index.getGates();
+        for (int gate = 0; gate < gates.size(); gate++) {
+            String associatedId = gates.getAssociatedId(gate);
+            if (associatedId != null) {
+                switch (gates.getModelClass(gate)) {
+                    case RECORD_GATE:
+                        add(scoreDependents, associatedId, gate);
+                        break;
+                    case WORLD_COMPLETION_GATE:
+                        add(worldDependents, associatedId, gate);
+                        break;
+                    case BALANCE_GATE:
+                    case PURCHASABLE_GATE:
+                        add(itemDependents, associatedId, gate);
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            if (gates.getParentKind(gate) == EntityKind.GATE) {
+                add(children, gates.getParent(gate), gate);
+            }
+        }
+
+        HashMap<String, int[]> scoreDependentArrays = toArrays(scoreDependents);
+        HashMap<String, RecordThresholds> recordThresholds = new HashMap<String, RecordThresholds>();
+        for (Map.Entry<String, int[]> entry : scoreDependentArrays.entrySet()) {
+            int score = index.getScores().ordinalOf(entry.getKey());
+            boolean higherBetter = score < 0 || index.getScores().isHigherBetter(score);
+            recordThresholds.put(entry.getKey(), new RecordThresholds(gates, entry.getValue(), higherBetter));
+        }
+
+        return new GateDependencyIndex(index, scoreDependentArrays, toArrays(worldDependents),
+                toArrays(itemDependents), toArrays(children), recordThresholds);
+    }
+
+    private GateDependencyIndex(LevelUpModelIndex index, HashMap<String, int[]> scoreDependents, HashMap<String, int[]> worldDependents,
+                                HashMap<String, int[]> itemDependents, HashMap<Integer, int[]> children,
+                                HashMap<String, RecordThresholds> recordThresholds) {
+        mIndex = index;
+        mScoreDependents = scoreDependents;
+        mWorldDependents = worldDependents;
+        mItemDependents = itemDependents;
+        mChildren = children;
+        mRecordThresholds = recordThresholds;
+    }
+
+    /**
+     * The record gates of one score, sorted by ascending desired record.
+     */
+    private static class RecordThresholds {
+
+        RecordThresholds(LevelUpModelIndex.EntityTable gateTable, int[] recordGates, boolean higherBetter) {
+            final double[] records = new double[recordGates.length];
+            Integer[] order = new Integer[recordGates.length];
+            for (int i = 0; i < recordGates.length; i++) {
+                order[i] = i;
+                records[i] = gateTable.getDesiredValue(recordGates[i]);
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer i, Integer j) {
+                    return Double.compare(records[i], records[j]);
+                }
+            });
+
+            this.higherBetter = higherBetter;
+            this.gates = new int[order.length];
+            this.desiredRecords = new double[order.length];
+            for (int i = 0; i < order.length; i++) {
+                this.gates[i] = recordGates[order[i]];
+                this.desiredRecords[i] = records[order[i]];
+            }
+        }
+
+        final boolean higherBetter;
+        final int[] gates;
+        final double[] desiredRecords;
+    }
+
+    // the index of the first record greater than the given one
+    private static int upperBound(double[] records, double record) {
+        int low = 0;
+        int high = records.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (records[mid] <= record) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // the index of the first record greater than or equal to the given one
+    private static int lowerBound(double[] records, double record) {
+        int low = 0;
+        int high = records.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (records[mid] < record) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static <K> void add(HashMap<K, List<Integer>> dependents, K key, int gate) {
+        List<Integer> gates = dependents.get(key);
+        if (gates == null) {
+            gates = new ArrayList<Integer>(1);
+            dependents.put(key, gates);
+        }
+        gates.add(gate);
+    }
+
+    private static <K> HashMap<K, int[]> toArrays(HashMap<K, List<Integer>> dependents) {
+        HashMap<K, int[]> arrays = new HashMap<K, int[]>(dependents.size() * 2);
+        for (Map.Entry<K, List<Integer>> entry : dependents.entrySet()) {
+            List<Integer> gates = entry.getValue();
+            int[] array = new int[gates.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = gates.get(i);
+            }
+            arrays.put(entry.getKey(), array);
+        }
+        return arrays;
+    }
+
+    private static final int[] NONE = new int[0];
+
+    private final LevelUpModelIndex mIndex;
+    private final HashMap<String, int[]> mScoreDependents;
+    private final HashMap<String, int[]> mWorldDependents;
+    private final HashMap<String, int[]> mItemDependents;
+    private final HashMap<Integer, int[]> mChildren;
+    private final HashMap<String, RecordThresholds> mRecordThresholds;
+    private final HashMap<Integer, GatesListProgram> mPrograms = new HashMap<Integer, GatesListProgram>();
+}
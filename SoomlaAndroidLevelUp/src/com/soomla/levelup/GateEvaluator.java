@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup;
+
+import com.soomla.BusProvider;
+import com.soomla.SoomlaUtils;
+import com.soomla.levelup.data.GateStorage;
+import com.soomla.levelup.data.ScoreStorage;
+import com.soomla.levelup.data.WorldStorage;
+import com.soomla.levelup.events.GateOpenedEvent;
+import com.soomla.levelup.events.LevelUpEventsBatchEvent;
+import com.soomla.levelup.events.ScoreRecordChangedEvent;
+import com.soomla.levelup.events.WorldCompletedEvent;
+import com.squareup.otto.Subscribe;
+
+/**
+ * Opens gates as the state they depend on changes.  Once enabled, it
+ * listens to world completions and gate openings, and re-evaluates only the
+ * gates that depend on the changed entity (see
+ * <code>GateDependencyIndex</code>).  Record gates are opened as a new
+ * record crosses their desired record; <code>ScoreRecordChangedEvent</code>s
+ * carry the old record to tell which thresholds were crossed.  Opening a gate re-evaluates the gates lists it's
+ * part of.  Gates are only ever opened, never closed.
+ * <p/>
+ * Virtual item balances are kept by the store, so balance changes have to be
+ * reported with <code>onItemBalanceChanged()</code>.
+ */
+public class GateEvaluator {
+
+    /**
+     * Starts opening gates on state changes.
+     */
+    public static synchronized void enable() {
+        if (sInstance != null) {
+            return;
+        }
+
+        sInstance = new GateEvaluator();
+        BusProvider.getInstance().register(sInstance);
+    }
+
+    public static synchronized void disable() {
+        if (sInstance == null) {
+            return;
+        }
+
+        BusProvider.getInstance().unregister(sInstance);
+        sInstance = null;
+    }
+
+    /**
+     * Re-evaluates the gates that depend on the given entity.
+     *
+     * @param kind the kind of the changed entity, <code>SCORE</code> or <code>WORLD</code>
+     * @param itemId the id of the changed entity
+     * @return the number of gates opened
+     */
+    public static int evaluate(EntityKind kind, String itemId) {
+        LevelUpModel model = LevelUp.getModel();
+        if (model == null) {
+            return 0;
+        }
+
+        int opened = 0;
+        for (int gate : model.getGateDependencies().getDependentGates(kind, itemId)) {
+            opened += evaluateGate(model, gate);
+        }
+        return opened;
+    }
+
+    /**
+     * Handles a change of a score's record, called for every
+     * <code>ScoreRecordChangedEvent</code> while the evaluator is enabled.
+     * If the evaluator is enabled, opens the record gates whose threshold the
+     * new record crossed.  <code>ScoreStorage.setRecordScore()</code> fires
+     * their <code>ScoreRecordReachedEvent</code>s either way.
+     *
+     * @param scoreId the id of the score
+     * @param oldRecord the record before the change, <code>-1</code> if it wasn't set
+     * @param newRecord the new record
+     * @return the number of gates opened
+     */
+    public static int onScoreRecordChanged(String scoreId, double oldRecord, double newRecord) {
+        LevelUpModel model = LevelUp.getModel();
+        if (model == null) {
+            return 0;
+        }
+
+        if (sInstance == null) {
+            return 0;
+        }
+
+        int opened = 0;
+        for (int gate : model.getGateDependencies().getCrossedRecordGates(scoreId, oldRecord, newRecord)) {
+            if (open(model, gate)) {
+                opened++;
+                opened += evaluateParentList(model, gate);
+            }
+        }
+        return opened;
+    }
+
+    /**
+     * Re-evaluates the balance gates of the given virtual item.
+     *
+     * @param itemId the id of the virtual item
+     * @param balance the item's new balance
+     * @return the number of gates opened
+     */
+    public static int onItemBalanceChanged(String itemId, int balance) {
+        LevelUpModel model = LevelUp.getModel();
+        if (model == null) {
+            return 0;
+        }
+
+        int opened = 0;
+        LevelUpModelIndex.EntityTable gates = model.getIndex().getGates();
+        for (int gate : model.getGateDependencies().getItemDependentGates(itemId)) {
+            if (gates.getModelClass(gate) != ModelClass.BALANCE_GATE) {
+                continue;
+            }
+
+            double desiredBalance = gates.getDesiredValue(gate);
+            if (balance >= desiredBalance && open(model, gate)) {
+                opened++;
+                opened += evaluateParentList(model, gate);
+            }
+        }
+        return opened;
+    }
+
+    @Subscribe
+    public void onWorldCompleted(WorldCompletedEvent worldCompletedEvent) {
+        evaluate(EntityKind.WORLD, worldCompletedEvent.WorldId);
+    }
+
+    @Subscribe
+    public void onScoreRecordChanged(ScoreRecordChangedEvent scoreRecordChangedEvent) {
+        String scoreId = scoreRecordChangedEvent.ScoreId;
+        if (Double.isNaN(scoreRecordChangedEvent.OldRecord)) {
+            // posted without the old record, the crossed thresholds are unknown
+            evaluate(EntityKind.SCORE, scoreId);
+            return;
+        }
+
+        onScoreRecordChanged(scoreId, scoreRecordChangedEvent.OldRecord, scoreRecordChangedEvent.NewRecord);
+    }
+
+    @Subscribe
+    public void onGateOpened(GateOpenedEvent gateOpenedEvent) {
+        // gates opened outside of the evaluator may complete a gates list
+        if (sOpening.get() != null) {
+            return;
+        }
+
+        LevelUpModel model = LevelUp.getModel();
+        if (model == null) {
+            return;
+        }
+
+        int gate = model.getIndex().getGates().ordinalOf(gateOpenedEvent.GateId);
+        if (gate >= 0) {
+            evaluateParentList(model, gate);
+        }
+    }
+
+    @Subscribe
+    public void onEventsBatch(LevelUpEventsBatchEvent eventsBatchEvent) {
+        for (Object event : eventsBatchEvent.Events) {
+            if (event instanceof WorldCompletedEvent) {
+                onWorldCompleted((WorldCompletedEvent) event);
+            } else if (event instanceof ScoreRecordChangedEvent) {
+                onScoreRecordChanged((ScoreRecordChangedEvent) event);
+            } else if (event instanceof GateOpenedEvent) {
+                onGateOpened((GateOpenedEvent) event);
+            }
+        }
+    }
+
+    private GateEvaluator() {
+    }
+
+    private static int evaluateGate(LevelUpModel model, int gate) {
+        if (!canOpen(model, gate) || !open(model, gate)) {
+            return 0;
+        }
+        return 1 + evaluateParentList(model, gate);
+    }
+
+    private static int evaluateParentList(LevelUpModel model, int gate) {
+        LevelUpModelIndex.EntityTable gates = model.getIndex().getGates();
+        if (gates.getParentKind(gate) != EntityKind.GATE) {
+            return 0;
+        }
+        return evaluateGate(model, gates.getParent(gate));
+    }
+
+    private static boolean open(LevelUpModel model, int gate) {
+        String gateId = model.getIndex().getGates().getId(gate);
+        if (GateStorage.isOpen(gateId)) {
+            return false;
+        }
+
+        SoomlaUtils.LogDebug(TAG, "Opening gate: " + gateId);
+        sOpening.set(Boolean.TRUE);
+        try {
+            GateStorage.setOpen(gateId, true);
+        } finally {
+            sOpening.remove();
+        }
+        return true;
+    }
+
+    private static boolean canOpen(LevelUpModel model, int gate) {
+        LevelUpModelIndex index = model.getIndex();
+        LevelUpModelIndex.EntityTable gates = index.getGates();
+        String associatedId = gates.getAssociatedId(gate);
+        switch (gates.getModelClass(gate)) {
+            case RECORD_GATE:
+                return associatedId != null && hasRecordReached(index, associatedId, gates.getDesiredValue(gate));
+            case WORLD_COMPLETION_GATE:
+                return associatedId != null && WorldStorage.isCompleted(associatedId);
+            case GATES_LIST_AND:
+            case GATES_LIST_OR:
+                return model.getGateDependencies().getGatesListProgram(gate).evaluate();
+            default:
+                return false;
+        }
+    }
+
+    private static boolean hasRecordReached(LevelUpModelIndex index, String scoreId, double desiredRecord) {
+        double record = ScoreStorage.getRecordScore(scoreId);
+        if (record == -1) {
+            return false;
+        }
+
+        int score = index.getScores().ordinalOf(scoreId);
+        boolean higherBetter = score < 0 || index.getScores().isHigherBetter(score);
+        return higherBetter ? record >= desiredRecord : record <= desiredRecord;
+    }
+
+    private static final String TAG = "SOOMLA GateEvaluator";
+
+    private static volatile GateEvaluator sInstance;
+
+    // set while the evaluator opens a gate, which cascades to the gates lists itself
+    private static final ThreadLocal<Boolean> sOpening = new ThreadLocal<Boolean>();
+}
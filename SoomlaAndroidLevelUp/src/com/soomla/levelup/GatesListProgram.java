@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup;
+
+import com.soomla.levelup.data.GateHandle;
+import com.soomla.levelup.data.GateStorage;
+import com.soomla.levelup.data.LUKeyValueStorage;
+
+import java.util.ArrayList;
+
+/**
+ * A gates list compiled into a flat program over the open states of the
+ * gates it's made of, nested lists included.  The program runs in a single
+ * loop with one accumulator, short-circuiting like <code>&&</code> and
+ * <code>||</code>, without touching the model JSON.
+ * <p/>
+ * A nested list counts as satisfied if it's open or if its own gates
+ * satisfy it.  The result is kept until one of the gates' open state may
+ * have changed (see <code>GateHandle.getOpenVersion()</code>).
+ */
+public class GatesListProgram {
+
+    /**
+     * Checks if the gates of the list satisfy it (all of them for a
+     * <code>GatesListAND</code>, any for a <code>GatesListOR</code>).
+     *
+     * @return <code>true</code> if the list can be opened
+     */
+    public boolean evaluate() {
+        if (LUKeyValueStorage.isInBatch()) {
+            // the calling thread may see uncommitted states, don't keep the result
+            return run(loadStates());
+        }
+
+        synchronized (this) {
+            long version = getVersion();
+            if (version != mVersion) {
+                // the version is taken before reading, so a concurrent change makes it stale
+                mResult = run(loadStates());
+                mVersion = version;
+            }
+            return mResult;
+        }
+    }
+
+    /**
+     * @return the number of gates the program reads
+     */
+    public int getOperandCount() {
+        return mOperands.length;
+    }
+
+    /**
+     * Compiles the given gates list.
+     *
+     * @param index the compiled model
+     * @param dependencies the model's gate dependencies
+     * @param listGate the ordinal of the gates list
+     * @return the program
+     */
+    static GatesListProgram compile(LevelUpModelIndex index, GateDependencyIndex dependencies, int listGate) {
+        Compiler compiler = new Compiler(index, dependencies);
+        compiler.emitList(listGate);
+        return new GatesListProgram(compiler);
+    }
+
+    private GatesListProgram(Compiler compiler) {
+        mCode = new int[compiler.code.size()];
+        for (int i = 0; i < mCode.length; i++) {
+            mCode[i] = compiler.code.get(i);
+        }
+        mOperands = compiler.operands.toArray(new GateHandle[compiler.operands.size()]);
+    }
+
+    private boolean run(long[] states) {
+        boolean acc = false;
+        int pc = 0;
+        while (pc < mCode.length) {
+            int arg = mCode[pc + 1];
+            switch (mCode[pc]) {
+                case OP_LOAD:
+                    acc = (states[arg >>> 6] & (1L << arg)) != 0;
+                    break;
+                case OP_CONST:
+                    acc = arg != 0;
+                    break;
+                case OP_JUMP_IF_TRUE:
+                    if (acc) {
+                        pc = arg;
+                        continue;
+                    }
+                    break;
+                default:
+                    if (!acc) {
+                        pc = arg;
+                        continue;
+                    }
+                    break;
+            }
+            pc += 2;
+        }
+        return acc;
+    }
+
+    private long[] loadStates() {
+        long[] states = new long[(mOperands.length + 63) >>> 6];
+        for (int i = 0; i < mOperands.length; i++) {
+            if (mOperands[i].isOpen()) {
+                states[i >>> 6] |= 1L << i;
+            }
+        }
+        return states;
+    }
+
+    // the versions only grow, so their sum changes whenever one of them does
+    private long getVersion() {
+        long version = 0;
+        for (GateHandle operand : mOperands) {
+            version += operand.getOpenVersion();
+        }
+        return version;
+    }
+
+    private static class Compiler {
+
+        Compiler(LevelUpModelIndex index, GateDependencyIndex dependencies) {
+            this.gates = index.getGates();
+            this.dependencies = dependencies;
+        }
+
+        void emitList(int listGate) {
+            boolean and = gates.getModelClass(listGate) == ModelClass.GATES_LIST_AND;
+            int[] children = dependencies.getChildGates(listGate);
+            if (children.length == 0) {
+                emit(OP_CONST, and ? 1 : 0);
+                return;
+            }
+
+            ArrayList<Integer> exits = new ArrayList<Integer>();
+            for (int i = 0; i < children.length; i++) {
+                emitGate(children[i]);
+                if (i < children.length - 1) {
+                    exits.add(emit(and ? OP_JUMP_IF_FALSE : OP_JUMP_IF_TRUE, 0));
+                }
+            }
+            patch(exits);
+        }
+
+        void emitGate(int gate) {
+            emit(OP_LOAD, operands.size());
+            operands.add(GateStorage.getHandle(gates.getId(gate)));
+
+            if (gates.getModelClass(gate).isGatesList()) {
+                // an open nested list is satisfied, otherwise its own gates decide
+                ArrayList<Integer> exits = new ArrayList<Integer>();
+                exits.add(emit(OP_JUMP_IF_TRUE, 0));
+                emitList(gate);
+                patch(exits);
+            }
+        }
+
+        // returns the position of the argument
+        int emit(int op, int arg) {
+            code.add(op);
+            code.add(arg);
+            return code.size() - 1;
+        }
+
+        void patch(ArrayList<Integer> jumps) {
+            for (int jump : jumps) {
+                code.set(jump, code.size());
+            }
+        }
+
+        final LevelUpModelIndex.EntityTable gates;
+        final GateDependencyIndex dependencies;
+        final ArrayList<Integer> code = new ArrayList<Integer>();
+        final ArrayList<GateHandle> operands = new ArrayList<GateHandle>();
+    }
+
+    private static final int OP_LOAD = 0;
+    private static final int OP_CONST = 1;
+    private static final int OP_JUMP_IF_TRUE = 2;
+    private static final int OP_JUMP_IF_FALSE = 3;
+
+    private final int[] mCode;
+    private final GateHandle[] mOperands;
+    private long mVersion = -1;
+    private boolean mResult;
+}
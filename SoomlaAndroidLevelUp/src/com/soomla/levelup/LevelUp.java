@@ -16,23 +16,37 @@
 
 package com.soomla.levelup;
 
-import android.text.TextUtils;
-
 import com.soomla.Soomla;
 import com.soomla.SoomlaUtils;
-import com.soomla.data.KeyValueStorage;
 import com.soomla.levelup.data.GateStorage;
+import com.soomla.levelup.data.LUJSONConsts;
+import com.soomla.levelup.data.LUKeyValueStorage;
+import com.soomla.levelup.data.LevelRecord;
 import com.soomla.levelup.data.LevelStorage;
+import com.soomla.levelup.data.LevelUpChangeLog;
 import com.soomla.levelup.data.MissionStorage;
 import com.soomla.levelup.data.ScoreStorage;
 import com.soomla.levelup.data.WorldStorage;
+import com.soomla.levelup.metrics.LevelUpMetrics;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.security.Key;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * The top level container for the android-levelup model and definitions.
@@ -42,199 +56,681 @@ import java.util.*;
 public class LevelUp {
 
     public static final String DB_KEY_PREFIX = "soomla.levelup.";
+    public static final String DB_MODEL_KEY = DB_KEY_PREFIX + "model";
     public static final String VERSION = "1.0.11";
 
     public static JSONObject getLevelUpState() {
-        JSONObject stateJSON = new JSONObject();
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            return exportState();
+        } finally {
+            LevelUpMetrics.exit(LevelUpMetrics.GET_STATE, startNanos);
+        }
+    }
+
+    /**
+     * Retrieves the current LevelUp state like <code>getLevelUpState()</code>,
+     * building its sections in parallel on the given executor.  Large sections
+     * are split into ranges of <code>EXPORT_CHUNK_SIZE</code> entities, so the
+     * work spreads evenly over the executor's threads.  The stored values are
+     * read once, up front, and shared by all the tasks.
+     * <p/>
+     * Don't pass an executor whose threads may be waiting for this call to
+     * return (e.g. the caller's own single-threaded executor).
+     *
+     * @param executor the executor to build the sections on
+     * @return the state, the same as <code>getLevelUpState()</code> returns
+     */
+    public static JSONObject getLevelUpState(ExecutorService executor) {
+        long startNanos = LevelUpMetrics.enter();
+        List<Future<JSONObject>> parts = new ArrayList<Future<JSONObject>>();
+        try {
+            JSONObject stateJSON = new JSONObject();
+
+            LevelUpModel model = getModel();
+            if (model == null) {
+                return stateJSON;
+            }
+
+            LevelUpModelIndex index = model.getIndex();
+            Map<String, String> values = LUKeyValueStorage.getValues(LUKeyValueStorage.getAllLevelUpKeys());
+            submitExportTasks(executor, LUJSONConsts.LU_GATES, index, index.getGates().size(), values, parts);
+            submitExportTasks(executor, LUJSONConsts.LU_WORLDS, index, index.getWorlds().size(), values, parts);
+            submitExportTasks(executor, LUJSONConsts.LU_MISSIONS, index, index.getMissions().size(), values, parts);
+            submitExportTasks(executor, LUJSONConsts.LU_SCORES, index, index.getScores().size(), values, parts);
+
+            // the parts are merged in order, so entities keep the order of the sequential export
+            for (String section : STATE_SECTIONS) {
+                stateJSON.put(section, new JSONObject());
+            }
+            for (Future<JSONObject> part : parts) {
+                JSONObject partJSON = part.get();
+                @SuppressWarnings("unchecked")
+                Iterator<String> sections = partJSON.keys();
+                while (sections.hasNext()) {
+                    String section = sections.next();
+                    JSONObject sectionJSON = stateJSON.getJSONObject(section);
+                    JSONObject partSectionJSON = partJSON.getJSONObject(section);
+                    @SuppressWarnings("unchecked")
+                    Iterator<String> itemIds = partSectionJSON.keys();
+                    while (itemIds.hasNext()) {
+                        String itemId = itemIds.next();
+                        sectionJSON.put(itemId, partSectionJSON.get(itemId));
+                    }
+                }
+            }
 
-        JSONObject modelJSON = getLevelUpModel();
-        if (modelJSON == null) {
             return stateJSON;
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            for (Future<JSONObject> part : parts) {
+                part.cancel(true);
+            }
+
+            SoomlaUtils.LogError(TAG, "Couldn't export the state in parallel, exporting sequentially: " + e.getLocalizedMessage());
+            return exportState();
+        } finally {
+            LevelUpMetrics.exit(LevelUpMetrics.GET_STATE_PARALLEL, startNanos);
         }
+    }
 
-        applyGatesStateToJSON(modelJSON, stateJSON);
-        applyWorldsStateToJSON(modelJSON, stateJSON);
-        applyMissionsStateToJSON(modelJSON, stateJSON);
-        applyScoresStateToJSON(modelJSON, stateJSON);
+    /**
+     * Streams the current LevelUp state as JSON to the given writer.
+     * The output has the same structure as <code>getLevelUpState()</code>, but
+     * is written section by section without building it in memory first.
+     * The writer is flushed but not closed.
+     *
+     * @param writer the writer to stream the state to
+     * @throws IOException if writing fails
+     */
+    public static void writeLevelUpState(Writer writer) throws IOException {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            LevelUpModel model = getModel();
+            LUKeyValueStorage.beginPrefetch();
+            try {
+                new LevelUpStateWriter(writer).write(model != null ? model.getIndex() : null);
+            } finally {
+                LUKeyValueStorage.endPrefetch();
+            }
+        } finally {
+            LevelUpMetrics.exit(LevelUpMetrics.WRITE_STATE, startNanos);
+        }
+    }
 
-        return stateJSON;
+    /**
+     * Streams the current LevelUp state as UTF-8 encoded JSON to the given
+     * stream.  The stream is flushed but not closed.
+     *
+     * @param out the stream to write the state to
+     * @throws IOException if writing fails
+     * @see #writeLevelUpState(java.io.Writer)
+     */
+    public static void writeLevelUpState(OutputStream out) throws IOException {
+        writeLevelUpState(new BufferedWriter(new OutputStreamWriter(out, STATE_CHARSET)));
+    }
+
+    /**
+     * Retrieves the current LevelUp state as a compact binary snapshot.
+     *
+     * @return the snapshot, see <code>LevelUpStateCodec</code>
+     */
+    public static byte[] getLevelUpStateSnapshot() {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            return LevelUpStateCodec.encode(exportState());
+        } finally {
+            LevelUpMetrics.exit(LevelUpMetrics.GET_STATE_SNAPSHOT, startNanos);
+        }
+    }
+
+    /**
+     * Replaces the current LevelUp state with the one in the given binary
+     * snapshot.
+     *
+     * @param snapshot a snapshot created with <code>getLevelUpStateSnapshot()</code>
+     * @return <code>true</code> if the state was applied, <code>false</code> otherwise
+     */
+    public static boolean resetLevelUpState(byte[] snapshot) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            return resetState(LevelUpStateCodec.decode(snapshot));
+        } finally {
+            LevelUpMetrics.exit(LevelUpMetrics.RESET_STATE_FROM_SNAPSHOT, startNanos);
+        }
     }
 
+    /**
+     * Replaces the current LevelUp state with the given one.
+     * All mutations are collected first and written out together, so if
+     * any part of the given state can't be applied the current state is left
+     * untouched.
+     *
+     * @param state the state to apply, as returned from <code>getLevelUpState()</code>
+     * @return <code>true</code> if the state was applied, <code>false</code> otherwise
+     */
     public static boolean resetLevelUpState(JSONObject state) {
-        if (state == null) {
-            return false;
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            return resetState(state);
+        } finally {
+            LevelUpMetrics.exit(LevelUpMetrics.RESET_STATE, startNanos);
         }
+    }
 
-        SoomlaUtils.LogDebug(TAG, "Resetting state with: " + state.toString());
+    /**
+     * Retrieves the state of the entities changed after the given version.
+     * The delta has the sections of <code>getLevelUpState()</code>, holding
+     * only the changed entities with all their values, plus:
+     * <ul>
+     *     <li><code>version</code>: the version to pass on the next call</li>
+     *     <li><code>full</code>: <code>true</code> if the changes since the given
+     *     version aren't all known (e.g. they were made in an earlier session),
+     *     in which case the delta holds the whole state</li>
+     * </ul>
+     *
+     * @param version the <code>version</code> of the previous delta, or any
+     *                negative number to get the whole state
+     * @return the state delta
+     */
+    public static JSONObject getLevelUpStateChangesSince(long version) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            long currentVersion = LevelUpChangeLog.getVersion();
+            List<LevelUpChangeLog.Change> changes = version >= 0 ? LevelUpChangeLog.getChangesSince(version) : null;
+
+            JSONObject deltaJSON;
+            if (changes == null) {
+                deltaJSON = exportState();
+            } else {
+                deltaJSON = new JSONObject();
+                for (String section : STATE_SECTIONS) {
+                    try {
+                        deltaJSON.put(section, new JSONObject());
+                    } catch (JSONException e) {
+                        SoomlaUtils.LogDebug(TAG, "Unable to set " + section + " delta: " + e.getLocalizedMessage());
+                    }
+                }
 
-        clearCurrentState();
+                for (LevelUpChangeLog.Change change : changes) {
+                    try {
+                        deltaJSON.getJSONObject(change.getSection()).put(change.getItemId(),
+                                getItemValuesJSON(change.getSection(), change.getItemId()));
+                    } catch (JSONException e) {
+                        SoomlaUtils.LogDebug(TAG, "Unable to get " + change.getSection() + " delta: " + e.getLocalizedMessage());
+                    }
+                }
+            }
 
-        SoomlaUtils.LogDebug(TAG, "Current state was cleared");
+            try {
+                deltaJSON.put(DELTA_VERSION, currentVersion);
+                deltaJSON.put(DELTA_FULL, changes == null);
+            } catch (JSONException e) {
+                SoomlaUtils.LogDebug(TAG, "Unable to set delta version: " + e.getLocalizedMessage());
+            }
 
-        return resetGatesStateFromJSON(state) &&
-                resetWorldsStateFromJSON(state) &&
-                resetMissionsStateFromJSON(state) &&
-                resetScoresStateFromJSON(state);
+            return deltaJSON;
+        } finally {
+            LevelUpMetrics.exit(LevelUpMetrics.GET_STATE_CHANGES, startNanos);
+        }
     }
 
-    public static JSONObject getLevelUpModel() {
-        JSONObject modelJSON = null;
+    /**
+     * Applies a delta created with <code>getLevelUpStateChangesSince()</code>.
+     * A full delta replaces the current state; otherwise only the entities in
+     * the delta are overwritten.  Like <code>resetLevelUpState()</code>, nothing
+     * is written if any entity can't be applied.  The applied entities aren't
+     * recorded as changes, so they don't come back in the next delta.
+     *
+     * @param delta the state delta
+     * @return <code>true</code> if the delta was applied, <code>false</code> otherwise
+     */
+    public static boolean applyLevelUpStateDelta(JSONObject delta) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (delta == null) {
+                return false;
+            }
 
-        String model = KeyValueStorage.getValue(DB_KEY_PREFIX + "model");
-        SoomlaUtils.LogDebug(TAG, "model: " + model);
-        if (model == null) {
-            return null;
+            if (delta.optBoolean(DELTA_FULL)) {
+                return resetState(delta);
+            }
+
+            SoomlaUtils.LogDebug(TAG, "Applying state delta: " + delta.toString());
+
+            boolean applied = false;
+
+            LUKeyValueStorage.beginBatch();
+            try {
+                // entities in a delta carry all their values, so absent optional
+                // values were removed on the other side
+                JSONObject worldsJSON = delta.optJSONObject("worlds");
+                if (worldsJSON != null) {
+                    @SuppressWarnings("unchecked")
+                    Iterator<String> keysIter = worldsJSON.keys();
+                    while (keysIter.hasNext()) {
+                        String worldId = keysIter.next();
+                        WorldStorage.setReward(worldId, null, false);
+                        WorldStorage.setLastCompletedInnerWorld(worldId, null, false);
+                    }
+                }
+
+                applied = resetGatesStateFromJSON(delta) &&
+                        resetWorldsStateFromJSON(delta) &&
+                        resetMissionsStateFromJSON(delta) &&
+                        resetScoresStateFromJSON(delta);
+            } finally {
+                if (!applied) {
+                    LUKeyValueStorage.abortBatch();
+                }
+            }
+
+            if (!applied) {
+                SoomlaUtils.LogError(TAG, "Unable to apply the given delta, current state was kept");
+                return false;
+            }
+
+            // the delta's changes were made elsewhere, don't send them back in the next delta
+            LUKeyValueStorage.commitBatch(false);
+            return true;
+        } finally {
+            LevelUpMetrics.exit(LevelUpMetrics.APPLY_STATE_DELTA, startNanos);
         }
+    }
 
+    /**
+     * Replaces the current LevelUp state with the state read from the given
+     * JSON stream.  Entries are applied while they are parsed, and their
+     * mutations are written out in batches of a few hundred entries, so the
+     * extra memory used doesn't grow with the size of the state.
+     * <p/>
+     * The current state is cleared in the first batch.  If the stream is
+     * invalid or can't be read to its end before that batch was written out,
+     * the current state is left untouched.  If it fails later, the state is
+     * left cleared with only the entries read until then applied; unlike
+     * <code>resetLevelUpState(JSONObject)</code>, the reset isn't atomic, so
+     * reset the state again (e.g. from the same source) when this returns
+     * <code>false</code>.
+     *
+     * @param reader the JSON stream of a state, as written by <code>writeLevelUpState()</code>
+     * @return <code>true</code> if the state was applied, <code>false</code> otherwise
+     */
+    public static boolean resetLevelUpState(Reader reader) {
+        long metricsStartNanos = LevelUpMetrics.enter();
         try {
-            modelJSON = new JSONObject(model);
-        } catch (JSONException e) {
-            SoomlaUtils.LogError(TAG, "Unable to parse LevelUp model into JSON");
-        }
+            if (reader == null) {
+                return false;
+            }
 
-        return modelJSON;
-    }
+            long startNanos = System.nanoTime();
+            boolean applied = false;
 
-    public static HashMap<String, JSONObject> getWorlds(JSONObject model) {
-        HashMap<String, JSONObject> worlds = new HashMap<String, JSONObject>();
+            LevelUpStateReader stateReader = new LevelUpStateReader(reader);
+            LUKeyValueStorage.beginBatch();
+            try {
+                clearCurrentState();
+
+                applied = stateReader.read();
+            } catch (IOException e) {
+                SoomlaUtils.LogError(TAG, "Unable to read state. error: " + e.getLocalizedMessage());
+            } catch (IllegalStateException e) {
+                // thrown by the parser on malformed JSON
+                SoomlaUtils.LogError(TAG, "Unable to parse state. error: " + e.getLocalizedMessage());
+            } finally {
+                if (!applied) {
+                    LUKeyValueStorage.abortBatch();
+                }
+            }
 
-        try {
-            JSONObject mainWorld = model.getJSONObject("mainWorld");
-            addWorldObjectToWorlds(worlds, mainWorld);
-        } catch (JSONException e) {
-            SoomlaUtils.LogError(TAG, "couldn't get something from model. error: " + e.getLocalizedMessage());
-        }
+            if (!applied) {
+                if (stateReader.hasCommitted()) {
+                    LevelUpChangeLog.reset();
+                    SoomlaUtils.LogError(TAG, "Unable to apply the given state stream, state was partially reset");
+                } else {
+                    SoomlaUtils.LogError(TAG, "Unable to apply the given state stream, current state was kept");
+                }
+                return false;
+            }
+
+            int mutations = stateReader.getCommittedMutationCount() + LUKeyValueStorage.commitBatch(false);
+            LevelUpChangeLog.reset();
 
-        return worlds;
+            SoomlaUtils.LogDebug(TAG, "State was reset from stream: " + stateReader.getEntityCount() + " entities, " +
+                    mutations + " mutations in " + (System.nanoTime() - startNanos) / 1000000 + "ms");
+
+            return true;
+        } finally {
+            LevelUpMetrics.exit(LevelUpMetrics.RESET_STATE_FROM_STREAM, metricsStartNanos);
+        }
     }
 
-    public static HashMap<String, JSONObject> getMissions(JSONObject model) {
-        HashMap<String, JSONObject> missions = getListFromWorlds(model, "missions");
-        findInternalLists(missions, new String[]{ "Challenge" }, "missions");
+    /**
+     * Replaces the current LevelUp state with the state read from the given
+     * UTF-8 encoded JSON stream.  The stream is not closed.
+     *
+     * @param in the JSON stream of a state
+     * @return <code>true</code> if the state was applied, <code>false</code> otherwise
+     * @see #resetLevelUpState(java.io.Reader)
+     */
+    public static boolean resetLevelUpState(InputStream in) {
+        if (in == null) {
+            return false;
+        }
 
-        return missions;
+        try {
+            return resetLevelUpState(new BufferedReader(new InputStreamReader(in, STATE_CHARSET)));
+        } catch (UnsupportedEncodingException e) {
+            SoomlaUtils.LogError(TAG, "Unable to read state. error: " + e.getLocalizedMessage());
+            return false;
+        }
     }
 
-    public static HashMap<String, JSONObject> getGates(JSONObject model) {
-        HashMap<String, JSONObject> resultHash = new HashMap<String, JSONObject>();
+    /**
+     * Persists all the state mutations still pending in write-behind mode
+     * (see <code>LUKeyValueStorage.enableWriteBehind()</code>).  Call it from
+     * your activity's <code>onPause()</code> so no progress is lost if the
+     * process is killed in the background.
+     */
+    public static void flush() {
+        int flushed = LUKeyValueStorage.flush();
+        if (flushed > 0) {
+            SoomlaUtils.LogDebug(TAG, "Flushed " + flushed + " pending mutations");
+        }
+    }
 
-        HashMap<String, JSONObject> worldJSONs = getWorlds(model);
+    /**
+     * Retrieves the parsed LevelUp model.
+     * The model is parsed once and cached until it is invalidated
+     * (see <code>invalidateModel()</code>).
+     *
+     * @return the model's JSON tree (shared, do not modify), or <code>null</code>
+     * if no model was stored
+     */
+    public static JSONObject getLevelUpModel() {
+        LevelUpModel model = getModel();
+        return model != null ? model.getJSON() : null;
+    }
 
-        for (JSONObject worldJSON : worldJSONs.values()) {
-            JSONObject gateJSON = worldJSON.optJSONObject("gate");
+    /**
+     * Retrieves a versioned handle on the cached LevelUp model, loading it
+     * from storage if needed.
+     *
+     * @return the model handle, or <code>null</code> if no model was stored
+     */
+    public static LevelUpModel getModel() {
+        LevelUpModel model = sModel;
+        if (model != null) {
+            return model;
+        }
 
-            if (gateJSON != null) {
-                String objectId = gateJSON.optString("itemId");
-                if (!TextUtils.isEmpty(objectId)) {
-                    resultHash.put(objectId, gateJSON);
-                }
+        synchronized (LevelUp.class) {
+            if (sModel == null) {
+                sModel = loadModel(sModelVersion);
             }
+            return sModel;
         }
+    }
 
+    /**
+     * Drops the cached model so the next lookup re-reads it from storage.
+     * Call this whenever the stored model changes.
+     */
+    public static void invalidateModel() {
+        synchronized (LevelUp.class) {
+            sModelVersion++;
+            sModel = null;
+        }
+    }
 
-        HashMap<String, JSONObject> missionJSONs = getMissions(model);
-        for (JSONObject missionJSON : missionJSONs.values()) {
-            JSONObject gateJSON = missionJSON.optJSONObject("gate");
+    /**
+     * Retrieves the version of the current model.  The version changes every
+     * time the model is invalidated.
+     *
+     * @return the current model version
+     */
+    public static int getModelVersion() {
+        return sModelVersion;
+    }
 
-            if (gateJSON != null) {
-                String objectId = gateJSON.optString("itemId");
-                if (!TextUtils.isEmpty(objectId)) {
-                    resultHash.put(objectId, gateJSON);
-                }
+    private static LevelUpModel loadModel(int version) {
+        long startNanos = LevelUpMetrics.start();
+        try {
+            String model = LUKeyValueStorage.getBackend().getValue(DB_MODEL_KEY);
+            SoomlaUtils.LogDebug(TAG, "model: " + model);
+            if (model == null) {
+                return null;
             }
+
+            try {
+                return new LevelUpModel(model, version);
+            } catch (JSONException e) {
+                SoomlaUtils.LogError(TAG, "Unable to parse LevelUp model into JSON");
+            }
+
+            return null;
+        } finally {
+            LevelUpMetrics.stop(LevelUpMetrics.PARSE_MODEL, startNanos);
         }
+    }
+
+    /**
+     * Retrieves all worlds (including levels) of the given model.
+     *
+     * @param model the LevelUp model
+     * @return the world JSONs keyed by id, in a map the caller may modify
+     */
+    public static HashMap<String, JSONObject> getWorlds(JSONObject model) {
+        return jsonMapOf(model, EntityKind.WORLD);
+    }
 
-        findInternalLists(resultHash, new String[] {"GatesListAND", "GatesListOR"}, "gates");
+    /**
+     * Retrieves all missions (including missions of challenges) of the given model.
+     *
+     * @param model the LevelUp model
+     * @return the mission JSONs keyed by id, in a map the caller may modify
+     */
+    public static HashMap<String, JSONObject> getMissions(JSONObject model) {
+        return jsonMapOf(model, EntityKind.MISSION);
+    }
 
-        return resultHash;
+    /**
+     * Retrieves all gates (including gates of gates lists) of the given model.
+     *
+     * @param model the LevelUp model
+     * @return the gate JSONs keyed by id, in a map the caller may modify
+     */
+    public static HashMap<String, JSONObject> getGates(JSONObject model) {
+        return jsonMapOf(model, EntityKind.GATE);
     }
 
+    /**
+     * Retrieves all scores of the given model.
+     *
+     * @param model the LevelUp model
+     * @return the score JSONs keyed by id, in a map the caller may modify
+     */
     public static HashMap<String, JSONObject> getScores(JSONObject model) {
-        return getListFromWorlds(model, "scores");
+        return jsonMapOf(model, EntityKind.SCORE);
     }
 
-    private static void clearCurrentState() {
-        List<String> allKeys = KeyValueStorage.getEncryptedKeys();
-        for (String key : allKeys) {
-            if (key.startsWith(GateStorage.DB_GATE_KEY_PREFIX) ||
-                    key.startsWith(LevelStorage.DB_LEVEL_KEY_PREFIX) ||
-                    key.startsWith(MissionStorage.DB_MISSION_KEY_PREFIX) ||
-                    key.startsWith(ScoreStorage.DB_SCORE_KEY_PREFIX) ||
-                    key.startsWith(WorldStorage.DB_WORLD_KEY_PREFIX)) {
-                KeyValueStorage.deleteKeyValue(key);
-            }
+    /**
+     * Like <code>getWorlds()</code>, without copying: the map is shared and
+     * can't be modified.
+     *
+     * @param model the LevelUp model
+     * @return a read-only view of the world JSONs keyed by id
+     */
+    public static Map<String, JSONObject> getWorldsView(JSONObject model) {
+        return jsonViewOf(model, EntityKind.WORLD);
+    }
+
+    /**
+     * Like <code>getMissions()</code>, without copying: the map is shared and
+     * can't be modified.
+     *
+     * @param model the LevelUp model
+     * @return a read-only view of the mission JSONs keyed by id
+     */
+    public static Map<String, JSONObject> getMissionsView(JSONObject model) {
+        return jsonViewOf(model, EntityKind.MISSION);
+    }
+
+    /**
+     * Like <code>getGates()</code>, without copying: the map is shared and
+     * can't be modified.
+     *
+     * @param model the LevelUp model
+     * @return a read-only view of the gate JSONs keyed by id
+     */
+    public static Map<String, JSONObject> getGatesView(JSONObject model) {
+        return jsonViewOf(model, EntityKind.GATE);
+    }
+
+    /**
+     * Like <code>getScores()</code>, without copying: the map is shared and
+     * can't be modified.
+     *
+     * @param model the LevelUp model
+     * @return a read-only view of the score JSONs keyed by id
+     */
+    public static Map<String, JSONObject> getScoresView(JSONObject model) {
+        return jsonViewOf(model, EntityKind.SCORE);
+    }
+
+    private static HashMap<String, JSONObject> jsonMapOf(JSONObject modelJSON, EntityKind kind) {
+        LevelUpModel model = sModel;
+        if (model != null && model.peekJSON() == modelJSON) {
+            return new HashMap<String, JSONObject>(model.getJSONView(kind));
         }
+
+        return LevelUpModelIndex.collectJSONs(modelJSON, kind);
     }
 
-    private static void addWorldObjectToWorlds(HashMap<String, JSONObject> worlds, JSONObject worldJSON) throws JSONException {
-        String worldId = worldJSON.getString("itemId");
-        worlds.put(worldId, worldJSON);
+    private static Map<String, JSONObject> jsonViewOf(JSONObject modelJSON, EntityKind kind) {
+        LevelUpModel model = sModel;
+        if (model != null && model.peekJSON() == modelJSON) {
+            return model.getJSONView(kind);
+        }
 
-        JSONArray worldsArr = worldJSON.getJSONArray("worlds");
-        for (int i=0; i<worldsArr.length(); i++) {
-            JSONObject innerWorldJSON = worldsArr.getJSONObject(i);
-            addWorldObjectToWorlds(worlds, innerWorldJSON);
+        return Collections.unmodifiableMap(LevelUpModelIndex.collectJSONs(modelJSON, kind));
+    }
+
+    // builds the state, the implementation of getLevelUpState()
+    private static JSONObject exportState() {
+        JSONObject stateJSON = new JSONObject();
+
+        LevelUpModel model = getModel();
+        if (model == null) {
+            return stateJSON;
+        }
+
+        LevelUpModelIndex index = model.getIndex();
+        LUKeyValueStorage.beginPrefetch();
+        try {
+            applyGatesStateToJSON(index, 0, index.getGates().size(), stateJSON);
+            applyWorldsStateToJSON(index, 0, index.getWorlds().size(), stateJSON);
+            applyMissionsStateToJSON(index, 0, index.getMissions().size(), stateJSON);
+            applyScoresStateToJSON(index, 0, index.getScores().size(), stateJSON);
+        } finally {
+            LUKeyValueStorage.endPrefetch();
         }
+
+        return stateJSON;
     }
 
-    private static HashMap<String, JSONObject> getListFromWorlds(JSONObject model, String listName) {
-        HashMap<String, JSONObject> resultHash = new HashMap<String, JSONObject>();
+    // replaces the state, the implementation of resetLevelUpState(JSONObject)
+    private static boolean resetState(JSONObject state) {
+        if (state == null) {
+            return false;
+        }
 
-        HashMap<String, JSONObject> worldJSONs = getWorlds(model);
+        SoomlaUtils.LogDebug(TAG, "Resetting state with: " + state.toString());
 
-        for (JSONObject worldJSON : worldJSONs.values()) {
-            JSONArray objectJSONs = worldJSON.optJSONArray(listName);
-            if (objectJSONs != null) {
-                for (int i = 0; i < objectJSONs.length(); i++) {
-                    JSONObject objectJSON = objectJSONs.optJSONObject(i);
-                    if (objectJSON != null) {
-                        String objectId = objectJSON.optString("itemId");
-                        if (!TextUtils.isEmpty(objectId)) {
-                            resultHash.put(objectId, objectJSON);
-                        }
-                    }
-                }
+        long startNanos = System.nanoTime();
+        boolean applied = false;
+
+        LUKeyValueStorage.beginBatch();
+        try {
+            clearCurrentState();
+
+            applied = resetGatesStateFromJSON(state) &&
+                    resetWorldsStateFromJSON(state) &&
+                    resetMissionsStateFromJSON(state) &&
+                    resetScoresStateFromJSON(state);
+        } finally {
+            if (!applied) {
+                LUKeyValueStorage.abortBatch();
             }
         }
 
-        return resultHash;
+        if (!applied) {
+            SoomlaUtils.LogError(TAG, "Unable to apply the given state, current state was kept");
+            return false;
+        }
+
+        int mutations = LUKeyValueStorage.commitBatch(false);
+        LevelUpChangeLog.reset();
+
+        SoomlaUtils.LogDebug(TAG, "State was reset: " + countEntities(state) + " entities, " +
+                mutations + " mutations in " + (System.nanoTime() - startNanos) / 1000000 + "ms");
+
+        return true;
     }
 
-    private static void findInternalLists(HashMap<String, JSONObject> objects, String[] listClasses, String listName) {
-        try {
+    private static void clearCurrentState() {
+        LUKeyValueStorage.deleteAllLevelUpKeys();
+    }
 
-            List<String> classes = Arrays.asList(listClasses);
-            Set<JSONObject> valuesSet = new HashSet<JSONObject>(objects.values());
-            for (JSONObject objectJSON : valuesSet) {
-                findInternalLists(objects, classes, listName, objectJSON);
+    private static int countEntities(JSONObject state) {
+        int count = 0;
+        for (String section : STATE_SECTIONS) {
+            JSONObject sectionJSON = state.optJSONObject(section);
+            if (sectionJSON != null) {
+                count += sectionJSON.length();
             }
-        } catch (JSONException e) {
-            SoomlaUtils.LogError(TAG, "couldn't get internal lists for " + listName + ". error: " + e.getLocalizedMessage());
         }
+        return count;
     }
 
-    private static void findInternalLists(HashMap<String, JSONObject> objects, List<String> listClasses, String listName, JSONObject checkJSON) throws JSONException {
-        if (listClasses.contains(checkJSON.optString("className"))) {
-            JSONArray internalList = checkJSON.getJSONArray(listName);
-            for (int i = 0; i < internalList.length(); i++) {
-                JSONObject targetObject = internalList.getJSONObject(i);
-                String itemId = targetObject.getString("itemId");
-                objects.put(itemId, targetObject);
-                findInternalLists(objects, listClasses, listName, targetObject);
-            }
+    private static void submitExportTasks(ExecutorService executor, final String section,
+                                          final LevelUpModelIndex index, int size,
+                                          final Map<String, String> values, List<Future<JSONObject>> parts) {
+        for (int from = 0; from < size; from += EXPORT_CHUNK_SIZE) {
+            final int rangeFrom = from;
+            final int rangeTo = Math.min(from + EXPORT_CHUNK_SIZE, size);
+            parts.add(executor.submit(new Callable<JSONObject>() {
+                @Override
+                public JSONObject call() {
+                    JSONObject partJSON = new JSONObject();
+                    LUKeyValueStorage.beginPrefetch(values);
+                    try {
+                        if (LUJSONConsts.LU_GATES.equals(section)) {
+                            applyGatesStateToJSON(index, rangeFrom, rangeTo, partJSON);
+                        } else if (LUJSONConsts.LU_WORLDS.equals(section)) {
+                            applyWorldsStateToJSON(index, rangeFrom, rangeTo, partJSON);
+                        } else if (LUJSONConsts.LU_MISSIONS.equals(section)) {
+                            applyMissionsStateToJSON(index, rangeFrom, rangeTo, partJSON);
+                        } else {
+                            applyScoresStateToJSON(index, rangeFrom, rangeTo, partJSON);
+                        }
+                    } finally {
+                        LUKeyValueStorage.endPrefetch();
+                    }
+                    return partJSON;
+                }
+            }));
         }
     }
 
-    private static void applyGatesStateToJSON(JSONObject modelJSON, JSONObject stateJSON) {
+    private static void applyGatesStateToJSON(LevelUpModelIndex index, int from, int to, JSONObject stateJSON) {
         JSONObject gatesStateJSON = new JSONObject();
-        HashMap<String, JSONObject> gates = getGates(modelJSON);
-        for (JSONObject gateJSON : gates.values()) {
-            JSONObject gateValuesJSON = new JSONObject();
+        LevelUpModelIndex.EntityTable gates = index.getGates();
+        for (int i = from; i < to; i++) {
             try {
-                String gateId = gateJSON.getString("itemId");
-                gateValuesJSON.put("open", GateStorage.isOpen(gateId));
-
-                gatesStateJSON.put(gateId, gateValuesJSON);
+                String gateId = gates.getId(i);
+                gatesStateJSON.put(gateId, getGateValuesJSON(gateId));
             }
             catch (JSONException e) {
                 SoomlaUtils.LogDebug(TAG, "Unable to get Gates state: " + e.getLocalizedMessage());
@@ -248,31 +744,18 @@ public class LevelUp {
         }
     }
 
-    private static void applyWorldsStateToJSON(JSONObject modelJSON, JSONObject stateJSON) {
+    private static void applyWorldsStateToJSON(LevelUpModelIndex index, int from, int to, JSONObject stateJSON) {
         JSONObject worldsStateJSON = new JSONObject();
         JSONObject levelsStateJSON = new JSONObject();
 
-        HashMap<String, JSONObject> worlds = getWorlds(modelJSON);
-        for (JSONObject worldJSON : worlds.values()) {
-            JSONObject worldValuesJSON = new JSONObject();
+        LevelUpModelIndex.EntityTable worlds = index.getWorlds();
+        for (int i = from; i < to; i++) {
             try {
-                String worldId = worldJSON.getString("itemId");
-                worldValuesJSON.put("completed", WorldStorage.isCompleted(worldId));
-                worldValuesJSON.put("assignedReward", WorldStorage.getAssignedReward(worldId));
-                worldValuesJSON.put("lastCompletedInnerWorld", WorldStorage.getLastCompletedInnerWorld(worldId));
-
-                worldsStateJSON.put(worldId, worldValuesJSON);
-
-                if (worldJSON.getString("className").equals("Level")) {
-                    JSONObject levelValuesJSON = new JSONObject();
-                    levelValuesJSON.put("started", LevelStorage.getTimesStarted(worldId));
-                    levelValuesJSON.put("played", LevelStorage.getTimesPlayed(worldId));
-                    levelValuesJSON.put("timesCompleted", LevelStorage.getTimesCompleted(worldId));
-                    levelValuesJSON.put("last", LevelStorage.getLastDurationMillis(worldId));
-                    levelValuesJSON.put("slowest", LevelStorage.getSlowestDurationMillis(worldId));
-                    levelValuesJSON.put("fastest", LevelStorage.getFastestDurationMillis(worldId));
-
-                    levelsStateJSON.put(worldId, levelValuesJSON);
+                String worldId = worlds.getId(i);
+                worldsStateJSON.put(worldId, getWorldValuesJSON(worldId));
+
+                if (worlds.getModelClass(i) == ModelClass.LEVEL) {
+                    levelsStateJSON.put(worldId, getLevelValuesJSON(worldId));
                 }
             }
             catch (JSONException e) {
@@ -288,16 +771,13 @@ public class LevelUp {
         }
     }
 
-    private static void applyMissionsStateToJSON(JSONObject modelJSON, JSONObject stateJSON) {
+    private static void applyMissionsStateToJSON(LevelUpModelIndex index, int from, int to, JSONObject stateJSON) {
         JSONObject missionsStateJSON = new JSONObject();
-        HashMap<String, JSONObject> missions = getMissions(modelJSON);
-        for (JSONObject missionJSON : missions.values()) {
-            JSONObject missionValuesJSON = new JSONObject();
+        LevelUpModelIndex.EntityTable missions = index.getMissions();
+        for (int i = from; i < to; i++) {
             try {
-                String missionId = missionJSON.getString("itemId");
-                missionValuesJSON.put("timesCompleted", MissionStorage.getTimesCompleted(missionId));
-
-                missionsStateJSON.put(missionId, missionValuesJSON);
+                String missionId = missions.getId(i);
+                missionsStateJSON.put(missionId, getMissionValuesJSON(missionId));
             }
             catch (JSONException e) {
                 SoomlaUtils.LogDebug(TAG, "Unable to get Missions state: " + e.getLocalizedMessage());
@@ -311,17 +791,13 @@ public class LevelUp {
         }
     }
 
-    private static void applyScoresStateToJSON(JSONObject modelJSON, JSONObject stateJSON) {
+    private static void applyScoresStateToJSON(LevelUpModelIndex index, int from, int to, JSONObject stateJSON) {
         JSONObject scoresStateJSON = new JSONObject();
-        HashMap<String, JSONObject> scores = getScores(modelJSON);
-        for (JSONObject scoreJSON : scores.values()) {
-            JSONObject scoreValuesJSON = new JSONObject();
+        LevelUpModelIndex.EntityTable scores = index.getScores();
+        for (int i = from; i < to; i++) {
             try {
-                String scoreId = scoreJSON.getString("itemId");
-                scoreValuesJSON.put("latest", ScoreStorage.getLatestScore(scoreId));
-                scoreValuesJSON.put("record", ScoreStorage.getRecordScore(scoreId));
-
-                scoresStateJSON.put(scoreId, scoreValuesJSON);
+                String scoreId = scores.getId(i);
+                scoresStateJSON.put(scoreId, getScoreValuesJSON(scoreId));
             }
             catch (JSONException e) {
                 SoomlaUtils.LogDebug(TAG, "Unable to get Scores state: " + e.getLocalizedMessage());
@@ -335,7 +811,59 @@ public class LevelUp {
         }
     }
 
-    private interface IItemStateApplier {
+    private static JSONObject getGateValuesJSON(String gateId) throws JSONException {
+        JSONObject gateValuesJSON = new JSONObject();
+        gateValuesJSON.put("open", GateStorage.isOpen(gateId));
+        return gateValuesJSON;
+    }
+
+    private static JSONObject getWorldValuesJSON(String worldId) throws JSONException {
+        JSONObject worldValuesJSON = new JSONObject();
+        worldValuesJSON.put("completed", WorldStorage.isCompleted(worldId));
+        worldValuesJSON.put("assignedReward", WorldStorage.getAssignedReward(worldId));
+        worldValuesJSON.put("lastCompletedInnerWorld", WorldStorage.getLastCompletedInnerWorld(worldId));
+        return worldValuesJSON;
+    }
+
+    private static JSONObject getLevelValuesJSON(String levelId) throws JSONException {
+        LevelRecord levelRecord = LevelStorage.getLevelRecord(levelId);
+        JSONObject levelValuesJSON = new JSONObject();
+        levelValuesJSON.put("started", levelRecord.getTimesStarted());
+        levelValuesJSON.put("played", levelRecord.getTimesPlayed());
+        levelValuesJSON.put("timesCompleted", levelRecord.getTimesCompleted());
+        levelValuesJSON.put("last", levelRecord.getLastDurationMillis());
+        levelValuesJSON.put("slowest", levelRecord.getSlowestDurationMillis());
+        levelValuesJSON.put("fastest", levelRecord.getFastestDurationMillis());
+        return levelValuesJSON;
+    }
+
+    private static JSONObject getMissionValuesJSON(String missionId) throws JSONException {
+        JSONObject missionValuesJSON = new JSONObject();
+        missionValuesJSON.put("timesCompleted", MissionStorage.getTimesCompleted(missionId));
+        return missionValuesJSON;
+    }
+
+    private static JSONObject getScoreValuesJSON(String scoreId) throws JSONException {
+        JSONObject scoreValuesJSON = new JSONObject();
+        scoreValuesJSON.put("latest", ScoreStorage.getLatestScore(scoreId));
+        scoreValuesJSON.put("record", ScoreStorage.getRecordScore(scoreId));
+        return scoreValuesJSON;
+    }
+
+    private static JSONObject getItemValuesJSON(String section, String itemId) throws JSONException {
+        if ("gates".equals(section)) {
+            return getGateValuesJSON(itemId);
+        } else if ("worlds".equals(section)) {
+            return getWorldValuesJSON(itemId);
+        } else if ("levels".equals(section)) {
+            return getLevelValuesJSON(itemId);
+        } else if ("missions".equals(section)) {
+            return getMissionValuesJSON(itemId);
+        }
+        return getScoreValuesJSON(itemId);
+    }
+
+    interface IItemStateApplier {
         boolean applyState(String itemId, JSONObject itemValuesJSON);
     }
 
@@ -365,139 +893,172 @@ public class LevelUp {
         return true;
     }
 
+    static IItemStateApplier getStateApplier(String targetListName) {
+        if ("gates".equals(targetListName)) {
+            return GATES_STATE_APPLIER;
+        } else if ("worlds".equals(targetListName)) {
+            return WORLDS_STATE_APPLIER;
+        } else if ("levels".equals(targetListName)) {
+            return LEVELS_STATE_APPLIER;
+        } else if ("missions".equals(targetListName)) {
+            return MISSIONS_STATE_APPLIER;
+        } else if ("scores".equals(targetListName)) {
+            return SCORES_STATE_APPLIER;
+        }
+        return null;
+    }
+
     private static boolean resetGatesStateFromJSON(JSONObject state) {
-        return resetStateFromJSON(state, "gates", new IItemStateApplier() {
-            @Override
-            public boolean applyState(String itemId, JSONObject itemValuesJSON) {
-                if (itemValuesJSON.has("open")) {
-                    try {
-                        boolean openState = itemValuesJSON.getBoolean("open");
-                        GateStorage.setOpen(itemId, openState, false);
-                    } catch (JSONException e) {
-                        SoomlaUtils.LogError(TAG, "Unable to set state for gate " + itemId + ". error: " + e.getLocalizedMessage());
-                        return false;
-                    }
-                }
-                return true;
-            }
-        });
+        return resetStateFromJSON(state, "gates", GATES_STATE_APPLIER);
     }
 
     private static boolean resetWorldsStateFromJSON(JSONObject state) {
-        boolean worldsApplyState =  resetStateFromJSON(state, "worlds", new IItemStateApplier() {
-            @Override
-            public boolean applyState(String itemId, JSONObject itemValuesJSON) {
-                try {
-                    if (itemValuesJSON.has("completed")) {
-                        boolean completedState = itemValuesJSON.getBoolean("completed");
-                        WorldStorage.setCompleted(itemId, completedState, false);
-                    }
+        boolean worldsApplyState = resetStateFromJSON(state, "worlds", WORLDS_STATE_APPLIER);
 
-                    if (itemValuesJSON.has("assignedReward")) {
-                        String assignedRewardId = itemValuesJSON.getString("assignedReward");
-                        WorldStorage.setReward(itemId, assignedRewardId, false);
-                    }
+        boolean levelsApplyState = resetStateFromJSON(state, "levels", LEVELS_STATE_APPLIER);
 
-                    if (itemValuesJSON.has("lastCompletedInnerWorld")) {
-                        String innerWorldId = itemValuesJSON.getString("lastCompletedInnerWorld");
-                        WorldStorage.setLastCompletedInnerWorld(itemId, innerWorldId, false);
-                    }
+        return worldsApplyState && levelsApplyState;
+    }
+
+    private static boolean resetMissionsStateFromJSON(JSONObject state) {
+        return resetStateFromJSON(state, "missions", MISSIONS_STATE_APPLIER);
+    }
+
+    private static boolean resetScoresStateFromJSON(JSONObject state) {
+        return resetStateFromJSON(state, "scores", SCORES_STATE_APPLIER);
+    }
+
+    private static final IItemStateApplier GATES_STATE_APPLIER = new IItemStateApplier() {
+        @Override
+        public boolean applyState(String itemId, JSONObject itemValuesJSON) {
+            if (itemValuesJSON.has("open")) {
+                try {
+                    boolean openState = itemValuesJSON.getBoolean("open");
+                    GateStorage.setOpen(itemId, openState, false);
                 } catch (JSONException e) {
-                    SoomlaUtils.LogError(TAG, "Unable to set state for world " + itemId + ". error: " + e.getLocalizedMessage());
+                    SoomlaUtils.LogError(TAG, "Unable to set state for gate " + itemId + ". error: " + e.getLocalizedMessage());
                     return false;
                 }
+            }
+            return true;
+        }
+    };
+
+    private static final IItemStateApplier WORLDS_STATE_APPLIER = new IItemStateApplier() {
+        @Override
+        public boolean applyState(String itemId, JSONObject itemValuesJSON) {
+            try {
+                if (itemValuesJSON.has("completed")) {
+                    boolean completedState = itemValuesJSON.getBoolean("completed");
+                    WorldStorage.setCompleted(itemId, completedState, false);
+                }
+
+                if (itemValuesJSON.has("assignedReward")) {
+                    String assignedRewardId = itemValuesJSON.getString("assignedReward");
+                    WorldStorage.setReward(itemId, assignedRewardId, false);
+                }
 
-                return true;
+                if (itemValuesJSON.has("lastCompletedInnerWorld")) {
+                    String innerWorldId = itemValuesJSON.getString("lastCompletedInnerWorld");
+                    WorldStorage.setLastCompletedInnerWorld(itemId, innerWorldId, false);
+                }
+            } catch (JSONException e) {
+                SoomlaUtils.LogError(TAG, "Unable to set state for world " + itemId + ". error: " + e.getLocalizedMessage());
+                return false;
             }
-        });
 
-        boolean levelsApplyState =  resetStateFromJSON(state, "levels", new IItemStateApplier() {
-            @Override
-            public boolean applyState(String itemId, JSONObject itemValuesJSON) {
-                try {
-                    if (itemValuesJSON.has("started")) {
-                        int timesStarted = itemValuesJSON.getInt("started");
-                        LevelStorage.setTimesStarted(itemId, timesStarted);
-                    }
+            return true;
+        }
+    };
 
-                    if (itemValuesJSON.has("played")) {
-                        int timesPlayed = itemValuesJSON.getInt("played");
-                        LevelStorage.setTimesPlayed(itemId, timesPlayed);
-                    }
+    private static final IItemStateApplier LEVELS_STATE_APPLIER = new IItemStateApplier() {
+        @Override
+        public boolean applyState(String itemId, JSONObject itemValuesJSON) {
+            try {
+                // the state was cleared, so missing values are zeros
+                LevelRecord levelRecord = new LevelRecord();
 
-                    if (itemValuesJSON.has("timesCompleted")) {
-                        int timesCompleted = itemValuesJSON.getInt("timesCompleted");
-                        LevelStorage.setTimesCompleted(itemId, timesCompleted);
-                    }
+                if (itemValuesJSON.has("started")) {
+                    levelRecord.setTimesStarted(itemValuesJSON.getInt("started"));
+                }
 
-                    if (itemValuesJSON.has("last")) {
-                        long last = itemValuesJSON.getLong("last");
-                        LevelStorage.setLastDurationMillis(itemId, last);
-                    }
+                if (itemValuesJSON.has("played")) {
+                    levelRecord.setTimesPlayed(itemValuesJSON.getInt("played"));
+                }
 
-                    if (itemValuesJSON.has("slowest")) {
-                        long slowest = itemValuesJSON.getLong("slowest");
-                        LevelStorage.setSlowestDurationMillis(itemId, slowest);
-                    }
+                if (itemValuesJSON.has("timesCompleted")) {
+                    levelRecord.setTimesCompleted(itemValuesJSON.getInt("timesCompleted"));
+                }
 
-                    if (itemValuesJSON.has("fastest")) {
-                        long fastest = itemValuesJSON.getLong("fastest");
-                        LevelStorage.setFastestDurationMillis(itemId, fastest);
-                    }
-                } catch (JSONException e) {
-                    SoomlaUtils.LogError(TAG, "Unable to set state for level " + itemId + ". error: " + e.getLocalizedMessage());
-                    return false;
+                if (itemValuesJSON.has("last")) {
+                    levelRecord.setLastDurationMillis(itemValuesJSON.getLong("last"));
                 }
 
-                return true;
+                if (itemValuesJSON.has("slowest")) {
+                    levelRecord.setSlowestDurationMillis(itemValuesJSON.getLong("slowest"));
+                }
+
+                if (itemValuesJSON.has("fastest")) {
+                    levelRecord.setFastestDurationMillis(itemValuesJSON.getLong("fastest"));
+                }
+
+                LevelStorage.setLevelRecord(itemId, levelRecord);
+            } catch (JSONException e) {
+                SoomlaUtils.LogError(TAG, "Unable to set state for level " + itemId + ". error: " + e.getLocalizedMessage());
+                return false;
             }
-        });
 
-        return worldsApplyState && levelsApplyState;
-    }
+            return true;
+        }
+    };
 
-    private static boolean resetMissionsStateFromJSON(JSONObject state) {
-        return resetStateFromJSON(state, "missions", new IItemStateApplier() {
-            @Override
-            public boolean applyState(String itemId, JSONObject itemValuesJSON) {
-                try {
-                    if (itemValuesJSON.has("timesCompleted")) {
-                        int timesCompleted = itemValuesJSON.getInt("timesCompleted");
-                        MissionStorage.setTimesCompleted(itemId, timesCompleted);
-                    }
-                } catch (JSONException e) {
-                    SoomlaUtils.LogError(TAG, "Unable to set state for level " + itemId + ". error: " + e.getLocalizedMessage());
-                    return false;
+    private static final IItemStateApplier MISSIONS_STATE_APPLIER = new IItemStateApplier() {
+        @Override
+        public boolean applyState(String itemId, JSONObject itemValuesJSON) {
+            try {
+                if (itemValuesJSON.has("timesCompleted")) {
+                    int timesCompleted = itemValuesJSON.getInt("timesCompleted");
+                    MissionStorage.setTimesCompleted(itemId, timesCompleted);
                 }
-
-                return true;
+            } catch (JSONException e) {
+                SoomlaUtils.LogError(TAG, "Unable to set state for level " + itemId + ". error: " + e.getLocalizedMessage());
+                return false;
             }
-        });
-    }
 
-    private static boolean resetScoresStateFromJSON(JSONObject state) {
-        return resetStateFromJSON(state, "scores", new IItemStateApplier() {
-            @Override
-            public boolean applyState(String itemId, JSONObject itemValuesJSON) {
-                try {
-                    if (itemValuesJSON.has("latest")) {
-                        double latestScore = itemValuesJSON.getInt("latest");
-                        ScoreStorage.setLatestScore(itemId, latestScore, false);
-                    }
+            return true;
+        }
+    };
 
-                    if (itemValuesJSON.has("record")) {
-                        double recordScore = itemValuesJSON.getInt("record");
-                        ScoreStorage.setRecordScore(itemId, recordScore, false);
-                    }
-                } catch (JSONException e) {
-                    SoomlaUtils.LogError(TAG, "Unable to set state for level " + itemId + ". error: " + e.getLocalizedMessage());
-                    return false;
+    private static final IItemStateApplier SCORES_STATE_APPLIER = new IItemStateApplier() {
+        @Override
+        public boolean applyState(String itemId, JSONObject itemValuesJSON) {
+            try {
+                if (itemValuesJSON.has("latest")) {
+                    double latestScore = itemValuesJSON.getDouble("latest");
+                    ScoreStorage.setLatestScore(itemId, latestScore, false);
                 }
 
-                return true;
+                if (itemValuesJSON.has("record")) {
+                    double recordScore = itemValuesJSON.getDouble("record");
+                    ScoreStorage.setRecordScore(itemId, recordScore, false);
+                }
+            } catch (JSONException e) {
+                SoomlaUtils.LogError(TAG, "Unable to set state for level " + itemId + ". error: " + e.getLocalizedMessage());
+                return false;
             }
-        });
-    }
+
+            return true;
+        }
+    };
 
     private static final String TAG = "SOOMLA LevelUp";
+
+    private static final String STATE_CHARSET = "UTF-8";
+    private static final String DELTA_VERSION = "version";
+    private static final String DELTA_FULL = "full";
+    private static final int EXPORT_CHUNK_SIZE = 256;
+    private static final String[] STATE_SECTIONS = { "gates", "worlds", "levels", "missions", "scores" };
+
+    private static volatile LevelUpModel sModel;
+    private static volatile int sModelVersion = 0;
 }
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * A versioned, read-only handle on the parsed LevelUp model.
+ * Obtain it with <code>LevelUp.getModel()</code> and hold on to it; once the
+ * stored model is replaced, <code>isCurrent()</code> returns <code>false</code>
+ * and a fresh handle should be fetched.
+ * <p/>
+ * The handle keeps the compiled index and the model's source.  The parsed
+ * JSON tree is only softly held: the VM may drop it under memory pressure,
+ * and it's parsed again from the source the next time it's asked for.  The
+ * JSON tree returned is shared and must not be modified.
+ */
+public class LevelUpModel {
+
+    LevelUpModel(String source, int version) throws JSONException {
+        JSONObject json = new JSONObject(source);
+        mSource = source;
+        mVersion = version;
+        mIndex = LevelUpModelIndex.build(json);
+        mParsed = new SoftReference<ParsedModel>(new ParsedModel(json));
+    }
+
+    /**
+     * Retrieves the parsed model, parsing it again if it was dropped.
+     *
+     * @return the model's JSON tree (shared, do not modify)
+     */
+    public JSONObject getJSON() {
+        return parsed().json;
+    }
+
+    /**
+     * Retrieves the model version this handle was created for.
+     *
+     * @return the model version
+     */
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Checks if this handle still reflects the stored model.
+     *
+     * @return <code>true</code> if the model was not replaced since this handle
+     * was created, <code>false</code> otherwise
+     */
+    public boolean isCurrent() {
+        return LevelUp.getModelVersion() == mVersion;
+    }
+
+    /**
+     * Retrieves the id index of the model, which is built when the model loads.
+     *
+     * @return the model index
+     */
+    public LevelUpModelIndex getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * Retrieves the reverse dependencies of the model's gates, which are
+     * built the first time they're needed.
+     *
+     * @return the gate dependency index
+     */
+    public GateDependencyIndex getGateDependencies() {
+        GateDependencyIndex dependencies = mGateDependencies;
+        if (dependencies == null) {
+            dependencies = GateDependencyIndex.build(mIndex);
+            mGateDependencies = dependencies;
+        }
+        return dependencies;
+    }
+
+    // the parsed tree if it's still in memory, without parsing it again
+    JSONObject peekJSON() {
+        ParsedModel parsed = mParsed.get();
+        return parsed != null ? parsed.json : null;
+    }
+
+    // a read-only view of one kind's JSONs in the parsed tree, keyed by id
+    Map<String, JSONObject> getJSONView(EntityKind kind) {
+        ParsedModel parsed = parsed();
+        synchronized (parsed) {
+            Map<String, JSONObject> view = parsed.views.get(kind);
+            if (view == null) {
+                view = Collections.unmodifiableMap(LevelUpModelIndex.collectJSONs(parsed.json, kind));
+                parsed.views.put(kind, view);
+            }
+            return view;
+        }
+    }
+
+    private synchronized ParsedModel parsed() {
+        ParsedModel parsed = mParsed.get();
+        if (parsed == null) {
+            try {
+                parsed = new ParsedModel(new JSONObject(mSource));
+            } catch (JSONException e) {
+                // the source parsed when the handle was created
+                throw new IllegalStateException(e);
+            }
+            mParsed = new SoftReference<ParsedModel>(parsed);
+        }
+        return parsed;
+    }
+
+    // the JSON tree and the views into it, dropped together
+    private static class ParsedModel {
+
+        ParsedModel(JSONObject json) {
+            this.json = json;
+        }
+
+        final JSONObject json;
+        final EnumMap<EntityKind, Map<String, JSONObject>> views =
+                new EnumMap<EntityKind, Map<String, JSONObject>>(EntityKind.class);
+    }
+
+    private final String mSource;
+    private final int mVersion;
+    private final LevelUpModelIndex mIndex;
+    private SoftReference<ParsedModel> mParsed;
+    private volatile GateDependencyIndex mGateDependencies;
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup;
+
+import android.text.TextUtils;
+
+import com.soomla.SoomlaUtils;
+import com.soomla.levelup.data.LUJSONConsts;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The compiled, immutable form of the LevelUp model, built in a single pass.
+ * <p/>
+ * Every world (including levels), mission (including challenge missions),
+ * gate (including gates in gates lists) and score gets a dense ordinal in
+ * the <code>EntityTable</code> of its kind.  Tables keep the id, class tag
+ * and parent of each entity in flat arrays, so model queries and state
+ * export iterate ordinals instead of hashing ids.
+ * <p/>
+ * The few model values LevelUp itself evaluates (associated ids, desired
+ * records and balances, <code>higherBetter</code>) are copied into the
+ * tables too, so the index doesn't hold on to the model's JSON nodes.
+ */
+public class LevelUpModelIndex {
+
+    /**
+     * The compiled entities of one kind, addressed by ordinal.
+     */
+    public static class EntityTable {
+
+        /**
+         * @return the number of entities in the table
+         */
+        public int size() {
+            return mIds.length;
+        }
+
+        public String getId(int ordinal) {
+            return mIds[ordinal];
+        }
+
+        public ModelClass getModelClass(int ordinal) {
+            return mClasses[ordinal];
+        }
+
+        /**
+         * @return the kind of the entity containing the given one (a world,
+         * mission or gates list), or <code>null</code> for the main world
+         */
+        public EntityKind getParentKind(int ordinal) {
+            return mParentKinds[ordinal];
+        }
+
+        /**
+         * @return the ordinal of the entity containing the given one in the
+         * table of its kind, or <code>-1</code> for the main world
+         */
+        public int getParent(int ordinal) {
+            return mParents[ordinal];
+        }
+
+        /**
+         * @return the entity's associated score, world or virtual item id
+         * (e.g. a record gate's <code>associatedScoreId</code>), or
+         * <code>null</code> if its class has none
+         */
+        public String getAssociatedId(int ordinal) {
+            return mAssociatedIds != null ? mAssociatedIds[ordinal] : null;
+        }
+
+        /**
+         * @return the entity's desired record or balance, or <code>NaN</code>
+         * if its class has none
+         */
+        public double getDesiredValue(int ordinal) {
+            return mDesiredValues != null ? mDesiredValues[ordinal] : Double.NaN;
+        }
+
+        /**
+         * @return a score's <code>higherBetter</code> flag, <code>true</code>
+         * for other entities
+         */
+        public boolean isHigherBetter(int ordinal) {
+            return mLowerBetter == null || !mLowerBetter[ordinal];
+        }
+
+        /**
+         * Looks up the ordinal of the given id.
+         *
+         * @param itemId the id to look up
+         * @return the ordinal of the entity, or <code>-1</code> if it's not in the model
+         */
+        public int ordinalOf(String itemId) {
+            Integer ordinal = mOrdinals.get(itemId);
+            return ordinal != null ? ordinal : -1;
+        }
+
+        private EntityTable(TableBuilder builder) {
+            int size = builder.ids.size();
+            mIds = builder.ids.toArray(new String[size]);
+            mClasses = builder.classes.toArray(new ModelClass[size]);
+            mParentKinds = builder.parentKinds.toArray(new EntityKind[size]);
+            mParents = new int[size];
+            for (int i = 0; i < size; i++) {
+                mParents[i] = builder.parents.get(i);
+            }
+            mOrdinals = builder.ordinals;
+
+            // only kept for tables that have them
+            String[] associatedIds = null;
+            double[] desiredValues = null;
+            boolean[] lowerBetter = null;
+            for (int i = 0; i < size; i++) {
+                JSONObject json = builder.jsons.get(i);
+                String associatedId = associatedIdOf(mClasses[i], json);
+                if (associatedId != null) {
+                    if (associatedIds == null) {
+                        associatedIds = new String[size];
+                    }
+                    associatedIds[i] = associatedId;
+                }
+
+                double desiredValue = desiredValueOf(mClasses[i], json);
+                if (!Double.isNaN(desiredValue)) {
+                    if (desiredValues == null) {
+                        desiredValues = new double[size];
+                        Arrays.fill(desiredValues, Double.NaN);
+                    }
+                    desiredValues[i] = desiredValue;
+                }
+
+                if (builder.kind == EntityKind.SCORE && !json.optBoolean(LUJSONConsts.LU_SCORE_HIGHBETTER, true)) {
+                    if (lowerBetter == null) {
+                        lowerBetter = new boolean[size];
+                    }
+                    lowerBetter[i] = true;
+                }
+            }
+            mAssociatedIds = associatedIds;
+            mDesiredValues = desiredValues;
+            mLowerBetter = lowerBetter;
+        }
+
+        private final String[] mIds;
+        private final ModelClass[] mClasses;
+        private final EntityKind[] mParentKinds;
+        private final int[] mParents;
+        private final HashMap<String, Integer> mOrdinals;
+        private final String[] mAssociatedIds;
+        private final double[] mDesiredValues;
+        private final boolean[] mLowerBetter;
+    }
+
+    /**
+     * Compiles the given model.
+     *
+     * @param model the LevelUp model JSON
+     * @return the compiled model
+     */
+    public static LevelUpModelIndex build(JSONObject model) {
+        Builder builder = new Builder();
+
+        JSONObject mainWorld = model.optJSONObject("mainWorld");
+        if (mainWorld != null) {
+            builder.addWorld(mainWorld, null, -1);
+        } else {
+            SoomlaUtils.LogError(TAG, "couldn't get mainWorld from model");
+        }
+
+        return new LevelUpModelIndex(builder);
+    }
+
+    /**
+     * Collects the JSONs of one kind of entity from the given model, in a
+     * single pass.  The index itself doesn't keep them.
+     *
+     * @param model the LevelUp model JSON
+     * @param kind the kind of entities to collect
+     * @return the entities' JSONs (shared with <code>model</code>) keyed by id
+     */
+    public static HashMap<String, JSONObject> collectJSONs(JSONObject model, EntityKind kind) {
+        Builder builder = new Builder();
+
+        JSONObject mainWorld = model.optJSONObject("mainWorld");
+        if (mainWorld != null) {
+            builder.addWorld(mainWorld, null, -1);
+        } else {
+            SoomlaUtils.LogError(TAG, "couldn't get mainWorld from model");
+        }
+
+        TableBuilder table = builder.getTable(kind);
+        HashMap<String, JSONObject> jsons = new HashMap<String, JSONObject>(table.ids.size() * 2);
+        for (int i = 0; i < table.ids.size(); i++) {
+            jsons.put(table.ids.get(i), table.jsons.get(i));
+        }
+        return jsons;
+    }
+
+    public EntityTable getTable(EntityKind kind) {
+        switch (kind) {
+            case WORLD:
+                return mWorlds;
+            case MISSION:
+                return mMissions;
+            case GATE:
+                return mGates;
+            default:
+                return mScores;
+        }
+    }
+
+    public EntityTable getWorlds() {
+        return mWorlds;
+    }
+
+    public EntityTable getMissions() {
+        return mMissions;
+    }
+
+    public EntityTable getGates() {
+        return mGates;
+    }
+
+    public EntityTable getScores() {
+        return mScores;
+    }
+
+    private LevelUpModelIndex(Builder builder) {
+        mWorlds = new EntityTable(builder.worlds);
+        mMissions = new EntityTable(builder.missions);
+        mGates = new EntityTable(builder.gates);
+        mScores = new EntityTable(builder.scores);
+    }
+
+    private static String associatedIdOf(ModelClass modelClass, JSONObject json) {
+        switch (modelClass) {
+            case RECORD_GATE:
+            case RECORD_MISSION:
+                return json.optString(LUJSONConsts.LU_ASSOCSCOREID, null);
+            case WORLD_COMPLETION_GATE:
+            case WORLD_COMPLETION_MISSION:
+                return json.optString(LUJSONConsts.LU_ASSOCWORLDID, null);
+            case BALANCE_GATE:
+            case PURCHASABLE_GATE:
+            case BALANCE_MISSION:
+            case PURCHASING_MISSION:
+                return json.optString(LUJSONConsts.LU_ASSOCITEMID, null);
+            default:
+                return null;
+        }
+    }
+
+    private static double desiredValueOf(ModelClass modelClass, JSONObject json) {
+        switch (modelClass) {
+            case RECORD_GATE:
+            case RECORD_MISSION:
+                return json.optDouble(LUJSONConsts.LU_DESIRED_RECORD);
+            case BALANCE_GATE:
+            case BALANCE_MISSION:
+                return json.optInt(LUJSONConsts.LU_DESIRED_BALANCE);
+            default:
+                return Double.NaN;
+        }
+    }
+
+    // the builders keep the JSONs only while compiling
+    private static class TableBuilder {
+
+        TableBuilder(EntityKind kind) {
+            this.kind = kind;
+        }
+
+        int add(JSONObject json, EntityKind parentKind, int parent) {
+            if (json == null) {
+                return -1;
+            }
+
+            String itemId = json.optString("itemId");
+            if (TextUtils.isEmpty(itemId)) {
+                return -1;
+            }
+
+            ModelClass modelClass = ModelClass.fromClassName(json.optString("className"));
+
+            // a repeated id replaces the earlier entity, keeping its ordinal
+            Integer existing = ordinals.get(itemId);
+            if (existing != null) {
+                int ordinal = existing;
+                classes.set(ordinal, modelClass);
+                parentKinds.set(ordinal, parentKind);
+                parents.set(ordinal, parent);
+                jsons.set(ordinal, json);
+                return ordinal;
+            }
+
+            int ordinal = ids.size();
+            ids.add(itemId);
+            classes.add(modelClass);
+            parentKinds.add(parentKind);
+            parents.add(parent);
+            jsons.add(json);
+            ordinals.put(itemId, ordinal);
+            return ordinal;
+        }
+
+        final EntityKind kind;
+        final ArrayList<String> ids = new ArrayList<String>();
+        final ArrayList<ModelClass> classes = new ArrayList<ModelClass>();
+        final ArrayList<EntityKind> parentKinds = new ArrayList<EntityKind>();
+        final ArrayList<Integer> parents = new ArrayList<Integer>();
+        final ArrayList<JSONObject> jsons = new ArrayList<JSONObject>();
+        final HashMap<String, Integer> ordinals = new HashMap<String, Integer>();
+    }
+
+    private static class Builder {
+
+        void addWorld(JSONObject worldJSON, EntityKind parentKind, int parent) {
+            int world = worlds.add(worldJSON, parentKind, parent);
+            if (world < 0) {
+                return;
+            }
+
+            addGate(worldJSON.optJSONObject(LUJSONConsts.LU_GATE), EntityKind.WORLD, world);
+
+            JSONArray missionsArr = worldJSON.optJSONArray(LUJSONConsts.LU_MISSIONS);
+            if (missionsArr != null) {
+                for (int i = 0; i < missionsArr.length(); i++) {
+                    addMission(missionsArr.optJSONObject(i), EntityKind.WORLD, world);
+                }
+            }
+
+            JSONArray scoresArr = worldJSON.optJSONArray(LUJSONConsts.LU_SCORES);
+            if (scoresArr != null) {
+                for (int i = 0; i < scoresArr.length(); i++) {
+                    scores.add(scoresArr.optJSONObject(i), EntityKind.WORLD, world);
+                }
+            }
+
+            JSONArray worldsArr = worldJSON.optJSONArray(LUJSONConsts.LU_WORLDS);
+            if (worldsArr != null) {
+                for (int i = 0; i < worldsArr.length(); i++) {
+                    addWorld(worldsArr.optJSONObject(i), EntityKind.WORLD, world);
+                }
+            }
+        }
+
+        void addMission(JSONObject missionJSON, EntityKind parentKind, int parent) {
+            int mission = missions.add(missionJSON, parentKind, parent);
+            if (mission < 0) {
+                return;
+            }
+
+            addGate(missionJSON.optJSONObject(LUJSONConsts.LU_GATE), EntityKind.MISSION, mission);
+
+            if (missions.classes.get(mission) == ModelClass.CHALLENGE) {
+                JSONArray missionsArr = missionJSON.optJSONArray(LUJSONConsts.LU_MISSIONS);
+                if (missionsArr != null) {
+                    for (int i = 0; i < missionsArr.length(); i++) {
+                        addMission(missionsArr.optJSONObject(i), EntityKind.MISSION, mission);
+                    }
+                }
+            }
+        }
+
+        void addGate(JSONObject gateJSON, EntityKind parentKind, int parent) {
+            int gate = gates.add(gateJSON, parentKind, parent);
+            if (gate < 0) {
+                return;
+            }
+
+            if (gates.classes.get(gate).isGatesList()) {
+                JSONArray gatesArr = gateJSON.optJSONArray(LUJSONConsts.LU_GATES);
+                if (gatesArr != null) {
+                    for (int i = 0; i < gatesArr.length(); i++) {
+                        addGate(gatesArr.optJSONObject(i), EntityKind.GATE, gate);
+                    }
+                }
+            }
+        }
+
+        TableBuilder getTable(EntityKind kind) {
+            switch (kind) {
+                case WORLD:
+                    return worlds;
+                case MISSION:
+                    return missions;
+                case GATE:
+                    return gates;
+                default:
+                    return scores;
+            }
+        }
+
+        final TableBuilder worlds = new TableBuilder(EntityKind.WORLD);
+        final TableBuilder missions = new TableBuilder(EntityKind.MISSION);
+        final TableBuilder gates = new TableBuilder(EntityKind.GATE);
+        final TableBuilder scores = new TableBuilder(EntityKind.SCORE);
+    }
+
+    private static final String TAG = "SOOMLA LevelUpModelIndex";
+
+    private final EntityTable mWorlds;
+    private final EntityTable mMissions;
+    private final EntityTable mGates;
+    private final EntityTable mScores;
+}
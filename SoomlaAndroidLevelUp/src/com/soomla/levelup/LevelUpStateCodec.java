@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup;
+
+import com.soomla.SoomlaUtils;
+import com.soomla.levelup.data.LUJSONConsts;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Converts the LevelUp state between its JSON form (see
+ * <code>LevelUp.getLevelUpState()</code>) and a compact, versioned binary
+ * snapshot.
+ * <p/>
+ * Snapshot layout (version 1):
+ * <ul>
+ *     <li>the magic bytes <code>LUS</code>, a version byte and a byte with
+ *     one bit per present section (gates, worlds, levels, missions, scores)</li>
+ *     <li>a string table: a count followed by length-prefixed UTF-8 strings.
+ *     Every item id, reward id and inner world id is stored there once and
+ *     referenced by index afterwards</li>
+ *     <li>each present section: an entity count, the entities' id indices,
+ *     and then one column per field.  Boolean fields are two bitsets (present,
+ *     value), counters are zig-zag varints, optional strings are varint
+ *     string indices plus one (0 when absent), and scores are varints when
+ *     integral or raw IEEE doubles otherwise</li>
+ * </ul>
+ * Only the fields known to the state are kept, everything else is dropped.
+ */
+public class LevelUpStateCodec {
+
+    public static final int VERSION = 1;
+
+    /**
+     * Encodes the given JSON state into a binary snapshot.
+     *
+     * @param state the state, as returned from <code>LevelUp.getLevelUpState()</code>
+     * @return the snapshot, or <code>null</code> if the state is malformed
+     */
+    public static byte[] encode(JSONObject state) {
+        if (state == null) {
+            return null;
+        }
+
+        try {
+            Encoder encoder = new Encoder();
+            int sectionMask = 0;
+            for (int i = 0; i < SECTIONS.length; i++) {
+                JSONObject sectionJSON = state.optJSONObject(SECTIONS[i]);
+                if (sectionJSON != null) {
+                    sectionMask |= 1 << i;
+                    encoder.writeSection(i, sectionJSON);
+                }
+            }
+            return encoder.finish(sectionMask);
+        } catch (JSONException e) {
+            SoomlaUtils.LogError(TAG, "Unable to encode state. error: " + e.getLocalizedMessage());
+        } catch (UnsupportedEncodingException e) {
+            SoomlaUtils.LogError(TAG, "Unable to encode state. error: " + e.getLocalizedMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Decodes a binary snapshot back into the JSON state.
+     *
+     * @param snapshot the snapshot created with <code>encode()</code>
+     * @return the state, or <code>null</code> if the snapshot is malformed or of
+     * an unknown version
+     */
+    public static JSONObject decode(byte[] snapshot) {
+        if (snapshot == null) {
+            return null;
+        }
+
+        try {
+            Decoder decoder = new Decoder(snapshot);
+            for (byte magicByte : MAGIC) {
+                if (decoder.readByte() != magicByte) {
+                    SoomlaUtils.LogError(TAG, "Unable to decode state: not a LevelUp snapshot");
+                    return null;
+                }
+            }
+
+            int version = decoder.readByte();
+            if (version != VERSION) {
+                SoomlaUtils.LogError(TAG, "Unable to decode state: unknown snapshot version " + version);
+                return null;
+            }
+
+            int sectionMask = decoder.readByte();
+            decoder.readStrings();
+
+            JSONObject state = new JSONObject();
+            for (int i = 0; i < SECTIONS.length; i++) {
+                if ((sectionMask & (1 << i)) != 0) {
+                    state.put(SECTIONS[i], decoder.readSection(i));
+                }
+            }
+            return state;
+        } catch (IOException e) {
+            SoomlaUtils.LogError(TAG, "Unable to decode state. error: " + e.getLocalizedMessage());
+        } catch (JSONException e) {
+            SoomlaUtils.LogError(TAG, "Unable to decode state. error: " + e.getLocalizedMessage());
+        }
+
+        return null;
+    }
+
+    private static class Encoder {
+
+        void writeSection(int section, JSONObject sectionJSON) throws JSONException {
+            List<String> ids = new ArrayList<String>(sectionJSON.length());
+            List<JSONObject> values = new ArrayList<JSONObject>(sectionJSON.length());
+            // org.json's keys() is untyped, but its keys are always strings
+            @SuppressWarnings("unchecked")
+            Iterator<String> keysIter = sectionJSON.keys();
+            while (keysIter.hasNext()) {
+                String itemId = keysIter.next();
+                ids.add(itemId);
+                values.add(sectionJSON.getJSONObject(itemId));
+            }
+
+            writeVarLong(ids.size());
+            for (String itemId : ids) {
+                writeVarLong(intern(itemId));
+            }
+
+            switch (section) {
+                case SECTION_GATES:
+                    writeBooleans(values, LUJSONConsts.LU_STATE_OPEN);
+                    break;
+                case SECTION_WORLDS:
+                    writeBooleans(values, LUJSONConsts.LU_STATE_COMPLETED);
+                    writeStrings(values, LUJSONConsts.LU_STATE_ASSIGNED_REWARD);
+                    writeStrings(values, LUJSONConsts.LU_STATE_LAST_COMPLETED_INNER_WORLD);
+                    break;
+                case SECTION_LEVELS:
+                    writeLongs(values, LUJSONConsts.LU_STATE_STARTED);
+                    writeLongs(values, LUJSONConsts.LU_STATE_PLAYED);
+                    writeLongs(values, LUJSONConsts.LU_STATE_TIMES_COMPLETED);
+                    writeLongs(values, LUJSONConsts.LU_STATE_LAST);
+                    writeLongs(values, LUJSONConsts.LU_STATE_SLOWEST);
+                    writeLongs(values, LUJSONConsts.LU_STATE_FASTEST);
+                    break;
+                case SECTION_MISSIONS:
+                    writeLongs(values, LUJSONConsts.LU_STATE_TIMES_COMPLETED);
+                    break;
+                case SECTION_SCORES:
+                    writeDoubles(values, LUJSONConsts.LU_STATE_LATEST);
+                    writeDoubles(values, LUJSONConsts.LU_STATE_RECORD);
+                    break;
+            }
+        }
+
+        byte[] finish(int sectionMask) throws UnsupportedEncodingException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(mBody.size() + mStrings.size() * 16 + 16);
+            out.write(MAGIC, 0, MAGIC.length);
+            out.write(VERSION);
+            out.write(sectionMask);
+
+            writeVarLong(out, mStringList.size());
+            for (String str : mStringList) {
+                byte[] bytes = str.getBytes(CHARSET);
+                writeVarLong(out, bytes.length);
+                out.write(bytes, 0, bytes.length);
+            }
+
+            byte[] bodyBytes = mBody.toByteArray();
+            out.write(bodyBytes, 0, bodyBytes.length);
+            return out.toByteArray();
+        }
+
+        private void writeBooleans(List<JSONObject> values, String name) throws JSONException {
+            boolean[] present = new boolean[values.size()];
+            boolean[] bits = new boolean[values.size()];
+            for (int i = 0; i < values.size(); i++) {
+                JSONObject valuesJSON = values.get(i);
+                present[i] = valuesJSON.has(name);
+                bits[i] = present[i] && valuesJSON.getBoolean(name);
+            }
+            writeBits(present);
+            writeBits(bits);
+        }
+
+        private void writeStrings(List<JSONObject> values, String name) throws JSONException {
+            for (JSONObject valuesJSON : values) {
+                writeVarLong(valuesJSON.has(name) ? intern(valuesJSON.getString(name)) + 1 : 0);
+            }
+        }
+
+        private void writeLongs(List<JSONObject> values, String name) throws JSONException {
+            boolean[] present = new boolean[values.size()];
+            for (int i = 0; i < values.size(); i++) {
+                present[i] = values.get(i).has(name);
+            }
+            writeBits(present);
+
+            for (int i = 0; i < values.size(); i++) {
+                if (present[i]) {
+                    writeZigZag(values.get(i).getLong(name));
+                }
+            }
+        }
+
+        private void writeDoubles(List<JSONObject> values, String name) throws JSONException {
+            boolean[] present = new boolean[values.size()];
+            boolean[] integral = new boolean[values.size()];
+            double[] doubles = new double[values.size()];
+            for (int i = 0; i < values.size(); i++) {
+                JSONObject valuesJSON = values.get(i);
+                present[i] = valuesJSON.has(name);
+                if (present[i]) {
+                    doubles[i] = valuesJSON.getDouble(name);
+                    integral[i] = doubles[i] == (long) doubles[i];
+                }
+            }
+            writeBits(present);
+            writeBits(integral);
+
+            for (int i = 0; i < values.size(); i++) {
+                if (!present[i]) {
+                    continue;
+                }
+                if (integral[i]) {
+                    writeZigZag((long) doubles[i]);
+                } else {
+                    long bits = Double.doubleToLongBits(doubles[i]);
+                    for (int shift = 56; shift >= 0; shift -= 8) {
+                        mBody.write((int) (bits >>> shift));
+                    }
+                }
+            }
+        }
+
+        private void writeBits(boolean[] bits) {
+            int current = 0;
+            for (int i = 0; i < bits.length; i++) {
+                if (bits[i]) {
+                    current |= 1 << (i & 7);
+                }
+                if ((i & 7) == 7) {
+                    mBody.write(current);
+                    current = 0;
+                }
+            }
+            if ((bits.length & 7) != 0) {
+                mBody.write(current);
+            }
+        }
+
+        private void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void writeVarLong(long value) {
+            writeVarLong(mBody, value);
+        }
+
+        private static void writeVarLong(ByteArrayOutputStream out, long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        private int intern(String str) {
+            Integer index = mStrings.get(str);
+            if (index == null) {
+                index = mStringList.size();
+                mStrings.put(str, index);
+                mStringList.add(str);
+            }
+            return index;
+        }
+
+        private final ByteArrayOutputStream mBody = new ByteArrayOutputStream();
+        private final HashMap<String, Integer> mStrings = new HashMap<String, Integer>();
+        private final List<String> mStringList = new ArrayList<String>();
+    }
+
+    private static class Decoder {
+
+        Decoder(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        void readStrings() throws IOException {
+            int count = readCount();
+            mStrings = new String[count];
+            for (int i = 0; i < count; i++) {
+                int length = readCount();
+                ensureAvailable(length);
+                mStrings[i] = new String(mBytes, mPos, length, CHARSET);
+                mPos += length;
+            }
+        }
+
+        JSONObject readSection(int section) throws IOException, JSONException {
+            int count = readCount();
+            String[] ids = new String[count];
+            JSONObject[] values = new JSONObject[count];
+            JSONObject sectionJSON = new JSONObject();
+            for (int i = 0; i < count; i++) {
+                ids[i] = readString();
+                values[i] = new JSONObject();
+                sectionJSON.put(ids[i], values[i]);
+            }
+
+            switch (section) {
+                case SECTION_GATES:
+                    readBooleans(values, LUJSONConsts.LU_STATE_OPEN);
+                    break;
+                case SECTION_WORLDS:
+                    readBooleans(values, LUJSONConsts.LU_STATE_COMPLETED);
+                    readStrings(values, LUJSONConsts.LU_STATE_ASSIGNED_REWARD);
+                    readStrings(values, LUJSONConsts.LU_STATE_LAST_COMPLETED_INNER_WORLD);
+                    break;
+                case SECTION_LEVELS:
+                    readInts(values, LUJSONConsts.LU_STATE_STARTED);
+                    readInts(values, LUJSONConsts.LU_STATE_PLAYED);
+                    readInts(values, LUJSONConsts.LU_STATE_TIMES_COMPLETED);
+                    readLongs(values, LUJSONConsts.LU_STATE_LAST);
+                    readLongs(values, LUJSONConsts.LU_STATE_SLOWEST);
+                    readLongs(values, LUJSONConsts.LU_STATE_FASTEST);
+                    break;
+                case SECTION_MISSIONS:
+                    readInts(values, LUJSONConsts.LU_STATE_TIMES_COMPLETED);
+                    break;
+                case SECTION_SCORES:
+                    readDoubles(values, LUJSONConsts.LU_STATE_LATEST);
+                    readDoubles(values, LUJSONConsts.LU_STATE_RECORD);
+                    break;
+            }
+
+            return sectionJSON;
+        }
+
+        int readByte() throws IOException {
+            ensureAvailable(1);
+            return mBytes[mPos++] & 0xFF;
+        }
+
+        private void readBooleans(JSONObject[] values, String name) throws IOException, JSONException {
+            boolean[] present = readBits(values.length);
+            boolean[] bits = readBits(values.length);
+            for (int i = 0; i < values.length; i++) {
+                if (present[i]) {
+                    values[i].put(name, bits[i]);
+                }
+            }
+        }
+
+        private void readStrings(JSONObject[] values, String name) throws IOException, JSONException {
+            for (JSONObject valuesJSON : values) {
+                int index = readCount();
+                if (index > 0) {
+                    valuesJSON.put(name, stringAt(index - 1));
+                }
+            }
+        }
+
+        private void readInts(JSONObject[] values, String name) throws IOException, JSONException {
+            boolean[] present = readBits(values.length);
+            for (int i = 0; i < values.length; i++) {
+                if (present[i]) {
+                    values[i].put(name, (int) readZigZag());
+                }
+            }
+        }
+
+        private void readLongs(JSONObject[] values, String name) throws IOException, JSONException {
+            boolean[] present = readBits(values.length);
+            for (int i = 0; i < values.length; i++) {
+                if (present[i]) {
+                    values[i].put(name, readZigZag());
+                }
+            }
+        }
+
+        private void readDoubles(JSONObject[] values, String name) throws IOException, JSONException {
+            boolean[] present = readBits(values.length);
+            boolean[] integral = readBits(values.length);
+            for (int i = 0; i < values.length; i++) {
+                if (!present[i]) {
+                    continue;
+                }
+                if (integral[i]) {
+                    values[i].put(name, (double) readZigZag());
+                } else {
+                    ensureAvailable(8);
+                    long bits = 0;
+                    for (int b = 0; b < 8; b++) {
+                        bits = (bits << 8) | (mBytes[mPos++] & 0xFF);
+                    }
+                    values[i].put(name, Double.longBitsToDouble(bits));
+                }
+            }
+        }
+
+        private boolean[] readBits(int count) throws IOException {
+            boolean[] bits = new boolean[count];
+            int current = 0;
+            for (int i = 0; i < count; i++) {
+                if ((i & 7) == 0) {
+                    current = readByte();
+                }
+                bits[i] = (current & (1 << (i & 7))) != 0;
+            }
+            return bits;
+        }
+
+        private String readString() throws IOException {
+            return stringAt(readCount());
+        }
+
+        private String stringAt(int index) throws IOException {
+            if (index >= mStrings.length) {
+                throw new IOException("string index out of range: " + index);
+            }
+            return mStrings[index];
+        }
+
+        private int readCount() throws IOException {
+            long value = readVarLong();
+            if (value < 0 || value > Integer.MAX_VALUE) {
+                throw new IOException("invalid count: " + value);
+            }
+            return (int) value;
+        }
+
+        private long readZigZag() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("malformed varint");
+        }
+
+        private void ensureAvailable(int length) throws EOFException {
+            if (length < 0 || mPos + length > mBytes.length) {
+                throw new EOFException("snapshot is truncated");
+            }
+        }
+
+        private final byte[] mBytes;
+        private int mPos = 0;
+        private String[] mStrings = new String[0];
+    }
+
+    private static final byte[] MAGIC = { 'L', 'U', 'S' };
+    private static final String CHARSET = "UTF-8";
+
+    private static final int SECTION_GATES = 0;
+    private static final int SECTION_WORLDS = 1;
+    private static final int SECTION_LEVELS = 2;
+    private static final int SECTION_MISSIONS = 3;
+    private static final int SECTION_SCORES = 4;
+    private static final String[] SECTIONS = {
+            LUJSONConsts.LU_GATES,
+            LUJSONConsts.LU_WORLDS,
+            LUJSONConsts.LU_LEVELS,
+            LUJSONConsts.LU_MISSIONS,
+            LUJSONConsts.LU_SCORES
+    };
+
+    private static final String TAG = "SOOMLA LevelUpStateCodec";
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.soomla.SoomlaUtils;
+import com.soomla.levelup.data.LUKeyValueStorage;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads a LevelUp state JSON stream with a pull parser and applies every
+ * gate, world, level, mission and score entry as soon as it's parsed.
+ * Only the values of the current entry are held in memory.  The mutations
+ * the entries make are collected by the caller's batch, which is committed
+ * and started again every <code>COMMIT_ENTITIES</code> entries so it never
+ * grows with the size of the state.
+ * <p/>
+ * Validation follows <code>LevelUp.resetLevelUpState(JSONObject)</code>:
+ * a known section must be an object of objects, and parsing stops at the
+ * first entry that can't be applied.  Unknown sections are skipped.
+ */
+class LevelUpStateReader {
+
+    LevelUpStateReader(Reader reader) {
+        mJsonReader = new JsonReader(reader);
+    }
+
+    /**
+     * Reads and applies the whole stream.
+     *
+     * @return <code>true</code> if all entries were applied, <code>false</code>
+     * if the stream is malformed or an entry couldn't be applied
+     * @throws IOException if reading fails
+     */
+    boolean read() throws IOException {
+        if (mJsonReader.peek() != JsonToken.BEGIN_OBJECT) {
+            SoomlaUtils.LogError(TAG, "State is not a JSON object");
+            return false;
+        }
+
+        mJsonReader.beginObject();
+        while (mJsonReader.hasNext()) {
+            String section = mJsonReader.nextName();
+            LevelUp.IItemStateApplier stateApplier = LevelUp.getStateApplier(section);
+            if (stateApplier == null) {
+                mJsonReader.skipValue();
+                continue;
+            }
+
+            SoomlaUtils.LogDebug(TAG, "Resetting state for " + section);
+            if (!readSection(section, stateApplier)) {
+                return false;
+            }
+        }
+        mJsonReader.endObject();
+
+        return true;
+    }
+
+    /**
+     * @return the number of entries applied so far
+     */
+    int getEntityCount() {
+        return mEntityCount;
+    }
+
+    /**
+     * @return the number of mutations written by the batches committed so far
+     */
+    int getCommittedMutationCount() {
+        return mCommittedMutationCount;
+    }
+
+    /**
+     * @return <code>true</code> if a batch was committed, so the stored state
+     * was already changed
+     */
+    boolean hasCommitted() {
+        return mCommitted;
+    }
+
+    private boolean readSection(String section, LevelUp.IItemStateApplier stateApplier) throws IOException {
+        if (mJsonReader.peek() != JsonToken.BEGIN_OBJECT) {
+            SoomlaUtils.LogError(TAG, "Unable to set state for " + section + ". error: section is not an object");
+            return false;
+        }
+
+        mJsonReader.beginObject();
+        while (mJsonReader.hasNext()) {
+            String itemId = mJsonReader.nextName();
+            if (mJsonReader.peek() != JsonToken.BEGIN_OBJECT) {
+                SoomlaUtils.LogError(TAG, "Unable to set state for " + section + ". error: " + itemId + " is not an object");
+                return false;
+            }
+
+            JSONObject itemValuesJSON;
+            try {
+                itemValuesJSON = readItemValues();
+            } catch (JSONException e) {
+                SoomlaUtils.LogError(TAG, "Unable to set state for " + section + ". error: " + e.getLocalizedMessage());
+                return false;
+            }
+
+            if (!stateApplier.applyState(itemId, itemValuesJSON)) {
+                return false;
+            }
+            mEntityCount++;
+
+            if (mEntityCount % COMMIT_ENTITIES == 0) {
+                mCommittedMutationCount += LUKeyValueStorage.commitBatch(false);
+                mCommitted = true;
+                LUKeyValueStorage.beginBatch();
+            }
+        }
+        mJsonReader.endObject();
+
+        return true;
+    }
+
+    private JSONObject readItemValues() throws IOException, JSONException {
+        JSONObject itemValuesJSON = new JSONObject();
+
+        mJsonReader.beginObject();
+        while (mJsonReader.hasNext()) {
+            String name = mJsonReader.nextName();
+            switch (mJsonReader.peek()) {
+                case BOOLEAN:
+                    itemValuesJSON.put(name, mJsonReader.nextBoolean());
+                    break;
+                case NUMBER:
+                    itemValuesJSON.put(name, parseNumber(mJsonReader.nextString()));
+                    break;
+                case STRING:
+                    itemValuesJSON.put(name, mJsonReader.nextString());
+                    break;
+                default:
+                    // nulls are absent values, nested values aren't part of the state
+                    mJsonReader.skipValue();
+            }
+        }
+        mJsonReader.endObject();
+
+        return itemValuesJSON;
+    }
+
+    private static Number parseNumber(String number) {
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            return Double.parseDouble(number);
+        }
+    }
+
+    private static final String TAG = "SOOMLA LevelUpStateReader";
+    private static final int COMMIT_ENTITIES = 256;
+
+    private final JsonReader mJsonReader;
+    private int mEntityCount = 0;
+    private int mCommittedMutationCount = 0;
+    private boolean mCommitted = false;
+}
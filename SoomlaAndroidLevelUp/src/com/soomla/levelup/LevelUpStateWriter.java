@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup;
+
+import android.util.JsonWriter;
+
+import com.soomla.levelup.data.GateStorage;
+import com.soomla.levelup.data.LUJSONConsts;
+import com.soomla.levelup.data.LevelRecord;
+import com.soomla.levelup.data.LevelStorage;
+import com.soomla.levelup.data.MissionStorage;
+import com.soomla.levelup.data.ScoreStorage;
+import com.soomla.levelup.data.WorldStorage;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes the LevelUp state as a JSON stream, one entity at a time.
+ * The output has the same structure as <code>LevelUp.getLevelUpState()</code>,
+ * but no JSON tree is built, so memory use doesn't grow with the number of
+ * entities.
+ */
+class LevelUpStateWriter {
+
+    LevelUpStateWriter(Writer writer) {
+        mJsonWriter = new JsonWriter(writer);
+    }
+
+    /**
+     * Writes the state of all the entities in the given model and flushes
+     * the underlying writer.
+     *
+     * @param index the compiled model
+     * @throws IOException if writing fails
+     */
+    void write(LevelUpModelIndex index) throws IOException {
+        mJsonWriter.beginObject();
+        if (index != null) {
+            writeGates(index.getGates());
+            writeWorlds(index.getWorlds());
+            writeLevels(index.getWorlds());
+            writeMissions(index.getMissions());
+            writeScores(index.getScores());
+        }
+        mJsonWriter.endObject();
+        mJsonWriter.flush();
+    }
+
+    private void writeGates(LevelUpModelIndex.EntityTable gates) throws IOException {
+        mJsonWriter.name(LUJSONConsts.LU_GATES).beginObject();
+        for (int i = 0; i < gates.size(); i++) {
+            String gateId = gates.getId(i);
+            mJsonWriter.name(gateId).beginObject();
+            mJsonWriter.name(LUJSONConsts.LU_STATE_OPEN).value(GateStorage.isOpen(gateId));
+            mJsonWriter.endObject();
+        }
+        mJsonWriter.endObject();
+    }
+
+    private void writeWorlds(LevelUpModelIndex.EntityTable worlds) throws IOException {
+        mJsonWriter.name(LUJSONConsts.LU_WORLDS).beginObject();
+        for (int i = 0; i < worlds.size(); i++) {
+            String worldId = worlds.getId(i);
+            mJsonWriter.name(worldId).beginObject();
+            mJsonWriter.name(LUJSONConsts.LU_STATE_COMPLETED).value(WorldStorage.isCompleted(worldId));
+            writeOptional(LUJSONConsts.LU_STATE_ASSIGNED_REWARD, WorldStorage.getAssignedReward(worldId));
+            writeOptional(LUJSONConsts.LU_STATE_LAST_COMPLETED_INNER_WORLD,
+                    WorldStorage.getLastCompletedInnerWorld(worldId));
+            mJsonWriter.endObject();
+        }
+        mJsonWriter.endObject();
+    }
+
+    private void writeLevels(LevelUpModelIndex.EntityTable worlds) throws IOException {
+        mJsonWriter.name(LUJSONConsts.LU_LEVELS).beginObject();
+        for (int i = 0; i < worlds.size(); i++) {
+            if (worlds.getModelClass(i) != ModelClass.LEVEL) {
+                continue;
+            }
+
+            String levelId = worlds.getId(i);
+            LevelRecord levelRecord = LevelStorage.getLevelRecord(levelId);
+            mJsonWriter.name(levelId).beginObject();
+            mJsonWriter.name(LUJSONConsts.LU_STATE_STARTED).value(levelRecord.getTimesStarted());
+            mJsonWriter.name(LUJSONConsts.LU_STATE_PLAYED).value(levelRecord.getTimesPlayed());
+            mJsonWriter.name(LUJSONConsts.LU_STATE_TIMES_COMPLETED).value(levelRecord.getTimesCompleted());
+            mJsonWriter.name(LUJSONConsts.LU_STATE_LAST).value(levelRecord.getLastDurationMillis());
+            mJsonWriter.name(LUJSONConsts.LU_STATE_SLOWEST).value(levelRecord.getSlowestDurationMillis());
+            mJsonWriter.name(LUJSONConsts.LU_STATE_FASTEST).value(levelRecord.getFastestDurationMillis());
+            mJsonWriter.endObject();
+        }
+        mJsonWriter.endObject();
+    }
+
+    private void writeMissions(LevelUpModelIndex.EntityTable missions) throws IOException {
+        mJsonWriter.name(LUJSONConsts.LU_MISSIONS).beginObject();
+        for (int i = 0; i < missions.size(); i++) {
+            String missionId = missions.getId(i);
+            mJsonWriter.name(missionId).beginObject();
+            mJsonWriter.name(LUJSONConsts.LU_STATE_TIMES_COMPLETED).value(MissionStorage.getTimesCompleted(missionId));
+            mJsonWriter.endObject();
+        }
+        mJsonWriter.endObject();
+    }
+
+    private void writeScores(LevelUpModelIndex.EntityTable scores) throws IOException {
+        mJsonWriter.name(LUJSONConsts.LU_SCORES).beginObject();
+        for (int i = 0; i < scores.size(); i++) {
+            String scoreId = scores.getId(i);
+            mJsonWriter.name(scoreId).beginObject();
+            mJsonWriter.name(LUJSONConsts.LU_STATE_LATEST).value(ScoreStorage.getLatestScore(scoreId));
+            mJsonWriter.name(LUJSONConsts.LU_STATE_RECORD).value(ScoreStorage.getRecordScore(scoreId));
+            mJsonWriter.endObject();
+        }
+        mJsonWriter.endObject();
+    }
+
+    // like JSONObject.put(), missing values are left out
+    private void writeOptional(String name, String value) throws IOException {
+        if (value != null) {
+            mJsonWriter.name(name).value(value);
+        }
+    }
+
+    private final JsonWriter mJsonWriter;
+}
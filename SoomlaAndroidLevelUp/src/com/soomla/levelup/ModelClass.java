@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup;
+
+import java.util.HashMap;
+
+/**
+ * The known <code>className</code> values of LevelUp model elements.
+ * Class names that are not listed here compile to <code>UNKNOWN</code>.
+ */
+public enum ModelClass {
+
+    /**
+     * Worlds *
+     */
+    WORLD("World"),
+    LEVEL("Level"),
+
+    /**
+     * Missions *
+     */
+    CHALLENGE("Challenge"),
+    BALANCE_MISSION("BalanceMission"),
+    PURCHASING_MISSION("PurchasingMission"),
+    RECORD_MISSION("RecordMission"),
+    WORLD_COMPLETION_MISSION("WorldCompletionMission"),
+    SOCIAL_LIKE_MISSION("SocialLikeMission"),
+    SOCIAL_STATUS_MISSION("SocialStatusMission"),
+    SOCIAL_UPLOAD_MISSION("SocialUploadMission"),
+
+    /**
+     * Gates *
+     */
+    GATES_LIST_AND("GatesListAND"),
+    GATES_LIST_OR("GatesListOR"),
+    BALANCE_GATE("BalanceGate"),
+    PURCHASABLE_GATE("PurchasableGate"),
+    RECORD_GATE("RecordGate"),
+    SCHEDULE_GATE("ScheduleGate"),
+    WORLD_COMPLETION_GATE("WorldCompletionGate"),
+    SOCIAL_LIKE_GATE("SocialLikeGate"),
+    SOCIAL_STATUS_GATE("SocialStatusGate"),
+    SOCIAL_UPLOAD_GATE("SocialUploadGate"),
+
+    /**
+     * Scores *
+     */
+    SCORE("Score"),
+    RANGE_SCORE("RangeScore"),
+    VIRTUAL_ITEM_SCORE("VirtualItemScore"),
+
+    UNKNOWN(null);
+
+    ModelClass(String className) {
+        mClassName = className;
+    }
+
+    /**
+     * @return the <code>className</code> as it appears in the model JSON,
+     * or <code>null</code> for <code>UNKNOWN</code>
+     */
+    public String getClassName() {
+        return mClassName;
+    }
+
+    /**
+     * @return <code>true</code> for <code>GatesListAND</code> and <code>GatesListOR</code>
+     */
+    public boolean isGatesList() {
+        return this == GATES_LIST_AND || this == GATES_LIST_OR;
+    }
+
+    /**
+     * Finds the tag of the given model class name.
+     *
+     * @param className the <code>className</code> of a model element
+     * @return the matching tag, or <code>UNKNOWN</code>
+     */
+    public static ModelClass fromClassName(String className) {
+        ModelClass modelClass = className != null ? sByClassName.get(className) : null;
+        return modelClass != null ? modelClass : UNKNOWN;
+    }
+
+    private final String mClassName;
+
+    private static final HashMap<String, ModelClass> sByClassName = new HashMap<String, ModelClass>();
+    static {
+        for (ModelClass modelClass : values()) {
+            if (modelClass.mClassName != null) {
+                sByClassName.put(modelClass.mClassName, modelClass);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+import android.text.TextUtils;
+
+/**
+ * A storage key built once, with its last read value cached.  The cached
+ * value is used as long as no write reached the key's write-version stripe
+ * (see <code>LUKeyValueStorage.getWriteVersion()</code>), and is never used
+ * inside a batch, where the calling thread may see uncommitted values.
+ * Values read from a prefetch aren't cached, since the prefetch may predate
+ * writes that the current write version already covers.
+ * <p/>
+ * Parsed values are cached too, so warm reads don't allocate.
+ */
+final class CachedKey {
+
+    CachedKey(String key) {
+        mKey = key;
+        mStripe = LUKeyValueStorage.stripeOf(key);
+    }
+
+    String getKey() {
+        return mKey;
+    }
+
+    /**
+     * @return a number that changes whenever the key may have been written
+     */
+    long getVersion() {
+        return LUKeyValueStorage.getWriteVersion(mStripe);
+    }
+
+    synchronized String getString() {
+        refresh();
+        return mValue;
+    }
+
+    synchronized boolean isSet() {
+        refresh();
+        return !TextUtils.isEmpty(mValue);
+    }
+
+    synchronized long getLong(long defaultValue) {
+        if (refresh() || !mParsed) {
+            mLong = TextUtils.isEmpty(mValue) ? defaultValue : Long.parseLong(mValue);
+            mParsed = true;
+        }
+        return mLong;
+    }
+
+    synchronized double getDouble(double defaultValue) {
+        if (refresh() || !mParsed) {
+            mDouble = TextUtils.isEmpty(mValue) ? defaultValue : Double.parseDouble(mValue);
+            mParsed = true;
+        }
+        return mDouble;
+    }
+
+    // the returned words are shared, do not modify
+    synchronized long[] getBits() {
+        if (refresh() || !mParsed) {
+            mBits = FlagBitset.decode(mValue);
+            mParsed = true;
+        }
+        return mBits;
+    }
+
+    synchronized LevelRecord getLevelRecord() {
+        if (refresh() || !mParsed) {
+            mRecord = LevelRecord.decode(mValue);
+            mParsed = true;
+        }
+        return mRecord;
+    }
+
+    // reads the value again unless the cached one is current, returns true if it did
+    private boolean refresh() {
+        if (LUKeyValueStorage.isInBatch()) {
+            mValue = LUKeyValueStorage.getValue(mKey);
+            mVersion = NOT_CACHED;
+            return true;
+        }
+
+        long version = LUKeyValueStorage.getWriteVersion(mStripe);
+        if (version == mVersion) {
+            return false;
+        }
+
+        if (LUKeyValueStorage.isPrefetching()) {
+            mValue = LUKeyValueStorage.getValue(mKey);
+            mVersion = NOT_CACHED;
+            return true;
+        }
+
+        // the version is taken before reading, so a concurrent write makes it stale
+        mValue = LUKeyValueStorage.getValue(mKey);
+        mVersion = version;
+        mParsed = false;
+        return true;
+    }
+
+    private static final long NOT_CACHED = -1;
+
+    private final String mKey;
+    private final int mStripe;
+    private long mVersion = NOT_CACHED;
+    private String mValue;
+
+    // a key only ever holds one type of value
+    private boolean mParsed;
+    private long mLong;
+    private double mDouble;
+    private LevelRecord mRecord;
+    private long[] mBits;
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+import android.text.TextUtils;
+
+import com.soomla.SoomlaUtils;
+import com.soomla.levelup.LevelUp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The boolean flags of one kind of entity (e.g. gates' open flags) packed
+ * into chunked bitsets, instead of a "yes"/missing key per entity.
+ * <p/>
+ * Every entity gets a stable slot the first time its flag is set; slots
+ * are never reused, and the slot table is persisted outside of the state
+ * prefixes, so model changes and state resets don't move flags around.
+ * Slot <code>s</code> is bit <code>s % 512</code> of chunk <code>s / 512</code>,
+ * each chunk kept under its own key in the entity kind's prefix (so clearing
+ * the state clears the chunks).  The slot table is split the same way: the
+ * ids of chunk <code>n</code>'s slots are kept under slot segment
+ * <code>n</code>, so new slots only rewrite the last segment, once per write.
+ * Reading a flag costs one (cached) read, setting it one read and one write.
+ * <p/>
+ * Reads take no lock of their own, and a write only locks the chunks it
+ * changes, one at a time, so flags of different chunks never contend.
+ * Inside a prefetch every chunk is decoded once for the whole prefetch.
+ */
+class FlagBitset {
+
+    /**
+     * @param kindPrefix the key prefix of the entity kind, e.g. <code>GateStorage.DB_GATE_KEY_PREFIX</code>
+     * @param name the name of the flag, e.g. "open"
+     */
+    FlagBitset(String kindPrefix, String name) {
+        mChunkKeyPrefix = kindPrefix + DB_BITS_INFIX + name + ".";
+        String kind = kindPrefix.substring(LevelUp.DB_KEY_PREFIX.length(), kindPrefix.length() - 1);
+        mSlotsKeyPrefix = DB_SLOTS_KEY_PREFIX + kind + "." + name + ".";
+        mLayoutKey = DB_LAYOUT_KEY_PREFIX + kind + "." + name;
+    }
+
+    /**
+     * @return <code>true</code> if the flags are kept in bitsets
+     */
+    boolean isEnabled() {
+        Boolean enabled = mEnabled;
+        if (enabled == null) {
+            enabled = LAYOUT_BITSET.equals(LUKeyValueStorage.getValue(mLayoutKey));
+            mEnabled = enabled;
+        }
+        return enabled;
+    }
+
+    /**
+     * Switches to the bitset layout, migrating the flags stored under their
+     * per-entity keys.  The switch is persisted, so it only needs to be done
+     * once; calling this again is a no-op.
+     *
+     * @param kindPrefix the key prefix of the entity kind
+     * @param legacyPostfix the postfix of the per-entity keys, e.g. ".open"
+     * @param orderedIds ids to give the first slots to, in order (e.g. the
+     *                   model's ordinals), may be empty
+     * @return the number of migrated flags
+     */
+    synchronized int enable(String kindPrefix, String legacyPostfix, List<String> orderedIds) {
+        if (isEnabled()) {
+            return 0;
+        }
+
+        for (String itemId : orderedIds) {
+            slotOf(itemId, true);
+        }
+
+        HashMap<String, Boolean> flags = new HashMap<String, Boolean>();
+        List<String> legacyKeys = new ArrayList<String>();
+        for (String key : LUKeyValueStorage.getLevelUpKeys(kindPrefix)) {
+            if (!key.endsWith(legacyPostfix) || key.startsWith(mChunkKeyPrefix)) {
+                continue;
+            }
+
+            String itemId = key.substring(kindPrefix.length(), key.length() - legacyPostfix.length());
+            if (!TextUtils.isEmpty(LUKeyValueStorage.getValue(key))) {
+                flags.put(itemId, true);
+            }
+            legacyKeys.add(key);
+        }
+
+        // bits and the layout marker go in before the old keys go away,
+        // so an interrupted migration simply runs again
+        writeAll(flags);
+        LUKeyValueStorage.setValue(mLayoutKey, LAYOUT_BITSET);
+        mEnabled = true;
+        LUKeyValueStorage.invalidateAll();
+
+        for (String key : legacyKeys) {
+            LUKeyValueStorage.deleteKeyValue(key);
+        }
+
+        SoomlaUtils.LogDebug(TAG, "Migrated " + flags.size() + " flags to " + mChunkKeyPrefix);
+        return flags.size();
+    }
+
+    // the layout and the slots are read again from the storage when next needed
+    synchronized void unload() {
+        mEnabled = null;
+        mSlots = null;
+        mChunks.clear();
+    }
+
+    boolean get(String itemId) {
+        int slot = slotOf(itemId, false);
+        if (slot < 0) {
+            return false;
+        }
+
+        long[] bits = chunkBits(slot / CHUNK_BITS);
+        int bit = slot % CHUNK_BITS;
+        return bit / 64 < bits.length && (bits[bit / 64] & (1L << bit)) != 0;
+    }
+
+    void set(String itemId, boolean value) {
+        HashMap<String, Boolean> flags = new HashMap<String, Boolean>(2);
+        flags.put(itemId, value);
+        writeAll(flags);
+    }
+
+    /**
+     * Reads the flags of the given entities, reading every chunk once.
+     */
+    Map<String, Boolean> getAll(Collection<String> itemIds) {
+        HashMap<String, Boolean> flags = new HashMap<String, Boolean>(itemIds.size() * 2);
+        for (String itemId : itemIds) {
+            flags.put(itemId, get(itemId));
+        }
+        return flags;
+    }
+
+    /**
+     * Writes the given flags, writing every changed chunk and the slot
+     * segments of new slots once.
+     */
+    void writeAll(Map<String, Boolean> flags) {
+        HashMap<Integer, HashMap<Integer, Boolean>> changed = new HashMap<Integer, HashMap<Integer, Boolean>>();
+        for (Map.Entry<String, Boolean> flag : flags.entrySet()) {
+            boolean value = flag.getValue() != null && flag.getValue();
+            int slot = slotOf(flag.getKey(), value);
+            if (slot < 0) {
+                // never set, so already clear
+                continue;
+            }
+
+            HashMap<Integer, Boolean> chunkFlags = changed.get(slot / CHUNK_BITS);
+            if (chunkFlags == null) {
+                chunkFlags = new HashMap<Integer, Boolean>();
+                changed.put(slot / CHUNK_BITS, chunkFlags);
+            }
+            chunkFlags.put(slot % CHUNK_BITS, value);
+        }
+
+        // the slots go in before the bits that use them
+        persistSlots();
+
+        for (Map.Entry<Integer, HashMap<Integer, Boolean>> entry : changed.entrySet()) {
+            String key = chunk(entry.getKey()).getKey();
+
+            // read and written under the chunk's lock, so concurrent writes
+            // to its other bits aren't lost
+            synchronized (sChunkLocks.forId(key)) {
+                // the cached chunk may be a prefetched one that missed a write
+                long[] bits = new long[CHUNK_BITS / 64];
+                long[] stored = decode(LUKeyValueStorage.getCurrentValue(key));
+                System.arraycopy(stored, 0, bits, 0, stored.length);
+
+                for (Map.Entry<Integer, Boolean> bitValue : entry.getValue().entrySet()) {
+                    int bit = bitValue.getKey();
+                    if (bitValue.getValue()) {
+                        bits[bit / 64] |= 1L << bit;
+                    } else {
+                        bits[bit / 64] &= ~(1L << bit);
+                    }
+                }
+
+                String encoded = encode(bits);
+                if (encoded.length() > 0) {
+                    LUKeyValueStorage.setValue(key, encoded);
+                } else {
+                    LUKeyValueStorage.deleteKeyValue(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a number that grows whenever the given entity's flag may have changed
+     */
+    long getVersion(String itemId) {
+        int slot = slotOf(itemId, false);
+        // an entity without a slot was never set, and setting it gives it one
+        return slot < 0 ? 0 : 1 + chunk(slot / CHUNK_BITS).getVersion();
+    }
+
+    private CachedKey chunk(int chunk) {
+        CachedKey key = mChunks.get(chunk);
+        if (key == null) {
+            CachedKey created = new CachedKey(mChunkKeyPrefix + chunk);
+            key = mChunks.putIfAbsent(chunk, created);
+            if (key == null) {
+                key = created;
+            }
+        }
+        return key;
+    }
+
+    // the words of the chunk, shared, do not modify.  Values read from a
+    // prefetch aren't cached by the chunk's key, so they're kept with the prefetch
+    private long[] chunkBits(int chunk) {
+        CachedKey key = chunk(chunk);
+        if (!LUKeyValueStorage.isPrefetching()) {
+            return key.getBits();
+        }
+
+        long[] bits = (long[]) LUKeyValueStorage.getPrefetchedDecoded(key.getKey());
+        if (bits == null) {
+            bits = key.getBits();
+            LUKeyValueStorage.putPrefetchedDecoded(key.getKey(), bits);
+        }
+        return bits;
+    }
+
+    private int slotOf(String itemId, boolean create) {
+        Slots slots = loadSlots();
+
+        Integer slot = slots.byId.get(itemId);
+        if (slot != null) {
+            return slot;
+        }
+        if (!create) {
+            return -1;
+        }
+
+        synchronized (slots) {
+            slot = slots.byId.get(itemId);
+            if (slot == null) {
+                // persisted by the write that needs it
+                slot = slots.ids.size();
+                slots.ids.add(itemId);
+                slots.byId.put(itemId, slot);
+            }
+            return slot;
+        }
+    }
+
+    // writes the segments holding the slots that weren't persisted yet
+    private void persistSlots() {
+        Slots slots = loadSlots();
+        synchronized (slots) {
+            int count = slots.ids.size();
+            if (slots.unsavedFrom == count) {
+                return;
+            }
+
+            for (int segment = slots.unsavedFrom / CHUNK_BITS; segment * CHUNK_BITS < count; segment++) {
+                List<String> segmentIds = slots.ids.subList(segment * CHUNK_BITS,
+                        Math.min((segment + 1) * CHUNK_BITS, count));
+                LUKeyValueStorage.setValue(mSlotsKeyPrefix + segment, TextUtils.join(SEPARATOR, segmentIds));
+            }
+
+            // the batch may still be aborted while the slots stay taken, so
+            // they're written again by the next write outside of a batch
+            if (!LUKeyValueStorage.isInBatch()) {
+                slots.unsavedFrom = count;
+            }
+        }
+    }
+
+    private Slots loadSlots() {
+        Slots slots = mSlots;
+        if (slots != null) {
+            return slots;
+        }
+
+        synchronized (this) {
+            if (mSlots != null) {
+                return mSlots;
+            }
+
+            slots = new Slots();
+            for (int segment = 0; ; segment++) {
+                String val = LUKeyValueStorage.getCurrentValue(mSlotsKeyPrefix + segment);
+                if (TextUtils.isEmpty(val)) {
+                    break;
+                }
+
+                String[] segmentIds = val.split(SEPARATOR);
+                for (String itemId : segmentIds) {
+                    slots.byId.put(itemId, slots.ids.size());
+                    slots.ids.add(itemId);
+                }
+                // only the last segment isn't full
+                if (segmentIds.length < CHUNK_BITS) {
+                    break;
+                }
+            }
+            slots.unsavedFrom = slots.ids.size();
+            mSlots = slots;
+            return slots;
+        }
+    }
+
+    // the slot table, slots are only added under its lock
+    private static class Slots {
+
+        final ConcurrentHashMap<String, Integer> byId = new ConcurrentHashMap<String, Integer>();
+        final ArrayList<String> ids = new ArrayList<String>();
+        int unsavedFrom;
+    }
+
+    // the words in hex, without the trailing zero words
+    static String encode(long[] bits) {
+        int length = bits.length;
+        while (length > 0 && bits[length - 1] == 0) {
+            length--;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(Long.toHexString(bits[i]));
+        }
+        return sb.toString();
+    }
+
+    static long[] decode(String encoded) {
+        if (TextUtils.isEmpty(encoded)) {
+            return new long[0];
+        }
+
+        String[] words = encoded.split(",");
+        long[] bits = new long[words.length];
+        for (int i = 0; i < words.length; i++) {
+            // parseLong can't take the full unsigned range
+            String word = words[i];
+            bits[i] = word.length() > 8
+                    ? (Long.parseLong(word.substring(0, word.length() - 8), 16) << 32) |
+                      Long.parseLong(word.substring(word.length() - 8), 16)
+                    : Long.parseLong(word, 16);
+        }
+        return bits;
+    }
+
+    private static final String TAG = "SOOMLA FlagBitset";
+
+    private static final int CHUNK_BITS = 512;
+    private static final String DB_BITS_INFIX = "bits.";
+    // kept outside of the state prefixes so clearing the state keeps them
+    private static final String DB_SLOTS_KEY_PREFIX = LevelUp.DB_KEY_PREFIX + "slots.";
+    private static final String DB_LAYOUT_KEY_PREFIX = LevelUp.DB_KEY_PREFIX + "layout.";
+    private static final String LAYOUT_BITSET = "bitset";
+    private static final String SEPARATOR = "\n";
+    private static final StripedLock sChunkLocks = new StripedLock(32);
+
+    private final String mChunkKeyPrefix;
+    private final String mSlotsKeyPrefix;
+    private final String mLayoutKey;
+    private volatile Boolean mEnabled;
+    private volatile Slots mSlots;
+    private final ConcurrentHashMap<Integer, CachedKey> mChunks = new ConcurrentHashMap<Integer, CachedKey>();
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+/**
+ * A handle on a single gate's state.  Get one with
+ * <code>GateStorage.getHandle()</code> and keep it: its key is built once and
+ * <code>isOpen()</code> is served from cache until the gate is opened or closed
+ * (in the bitset layout, until its chunk of flags changes).
+ * <p/>
+ * Handles always agree with the static <code>GateStorage</code> methods,
+ * which the setters go through (so events are posted as usual).
+ */
+public class GateHandle {
+
+    GateHandle(String gateId) {
+        mGateId = gateId;
+        mOpen = new CachedKey(GateStorage.keyGateOpen(gateId));
+    }
+
+    public String getGateId() {
+        return mGateId;
+    }
+
+    public boolean isOpen() {
+        return GateStorage.isBitsetLayout() ? GateStorage.isOpen(mGateId) : mOpen.isSet();
+    }
+
+    /**
+     * @return a number that changes whenever the gate may have been opened or
+     * closed, so results computed from its state can tell when to recompute
+     */
+    public long getOpenVersion() {
+        return GateStorage.isBitsetLayout() ? GateStorage.getOpenVersion(mGateId) : mOpen.getVersion();
+    }
+
+    public void setOpen(boolean open) {
+        GateStorage.setOpen(mGateId, open);
+    }
+
+    public void setOpen(boolean open, boolean notify) {
+        GateStorage.setOpen(mGateId, open, notify);
+    }
+
+    private final String mGateId;
+    private final CachedKey mOpen;
+}
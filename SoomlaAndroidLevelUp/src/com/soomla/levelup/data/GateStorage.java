@@ -18,17 +18,30 @@ package com.soomla.levelup.data;
 
 import android.text.TextUtils;
 
-import com.soomla.BusProvider;
-import com.soomla.data.KeyValueStorage;
 import com.soomla.levelup.LevelUp;
+import com.soomla.levelup.LevelUpModel;
+import com.soomla.levelup.LevelUpModelIndex;
 import com.soomla.levelup.events.GateClosedEvent;
 import com.soomla.levelup.events.GateOpenedEvent;
+import com.soomla.levelup.events.LevelUpEventDispatcher;
+import com.soomla.levelup.metrics.LevelUpMetrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A utility class for persisting and querying the state of gates.
  * Use this class to check if a certain gate is open, or to open it.
  * This class uses the <code>KeyValueStorage</code> internally for storage.
  * <p/>
+ * By default every open gate is kept as its own key.  Once
+ * <code>enableBitsetLayout()</code> is called, the open flags of all gates are
+ * packed into chunked bitsets instead.
+ * <p/>
  * Created by refaelos on 13/05/14.
  */
 public class GateStorage {
@@ -37,7 +50,7 @@ public class GateStorage {
         return DB_GATE_KEY_PREFIX + gateId + "." + postfix;
     }
 
-    private static String keyGateOpen(String gateId) {
+    static String keyGateOpen(String gateId) {
         return keyGates(gateId, "open");
     }
 
@@ -53,20 +66,26 @@ public class GateStorage {
     }
 
     public static void setOpen(String gateId, boolean open, boolean notify) {
-        String key = keyGateOpen(gateId);
-
-        if (open) {
-            KeyValueStorage.setValue(key, "yes");
-
-            if (notify) {
-                BusProvider.getInstance().post(new GateOpenedEvent(gateId));
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (sOpenFlags.isEnabled()) {
+                sOpenFlags.set(gateId, open);
+            } else if (open) {
+                LUKeyValueStorage.setValue(keyGateOpen(gateId), "yes");
+            } else {
+                LUKeyValueStorage.deleteKeyValue(keyGateOpen(gateId));
             }
-        } else {
-            KeyValueStorage.deleteKeyValue(key);
+            LevelUpChangeLog.recordChange(LUJSONConsts.LU_GATES, gateId);
 
             if (notify) {
-                BusProvider.getInstance().post(new GateClosedEvent(gateId));
+                if (open) {
+                    LevelUpEventDispatcher.post(new GateOpenedEvent(gateId));
+                } else {
+                    LevelUpEventDispatcher.post(new GateClosedEvent(gateId));
+                }
             }
+        } finally {
+            LevelUpMetrics.exit("GateStorage.setOpen", startNanos);
         }
     }
 
@@ -77,10 +96,157 @@ public class GateStorage {
      * @return <code>true</code> if open, <code>false</code> otherwise
      */
     public static boolean isOpen(String gateId) {
-        String key = keyGateOpen(gateId);
-        String val = KeyValueStorage.getValue(key);
-        return !TextUtils.isEmpty(val);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (sOpenFlags.isEnabled()) {
+                return sOpenFlags.get(gateId);
+            }
+
+            String key = keyGateOpen(gateId);
+            String val = LUKeyValueStorage.getValue(key);
+            return !TextUtils.isEmpty(val);
+        } finally {
+            LevelUpMetrics.exit("GateStorage.isOpen", startNanos);
+        }
+    }
+
+    /**
+     * Checks which of the given gates are open.  In the bitset layout every
+     * chunk of flags is read once for all the gates.
+     *
+     * @param gateIds the ids of the gates to check
+     * @return the open state of each gate
+     */
+    public static Map<String, Boolean> getOpenStates(Collection<String> gateIds) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (sOpenFlags.isEnabled()) {
+                return sOpenFlags.getAll(gateIds);
+            }
+
+            Map<String, Boolean> openStates = new HashMap<String, Boolean>(gateIds.size() * 2);
+            for (String gateId : gateIds) {
+                openStates.put(gateId, isOpen(gateId));
+            }
+            return openStates;
+        } finally {
+            LevelUpMetrics.exit("GateStorage.getOpenStates", startNanos);
+        }
+    }
+
+    /**
+     * Opens or closes the given gates.  In the bitset layout every changed
+     * chunk of flags is written once for all the gates.
+     *
+     * @param openStates the new open state of each gate
+     * @param notify <code>true</code> to post an event per gate
+     */
+    public static void setOpenStates(Map<String, Boolean> openStates, boolean notify) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (!sOpenFlags.isEnabled()) {
+                for (Map.Entry<String, Boolean> openState : openStates.entrySet()) {
+                    setOpen(openState.getKey(), openState.getValue(), notify);
+                }
+                return;
+            }
+
+            sOpenFlags.writeAll(openStates);
+            for (Map.Entry<String, Boolean> openState : openStates.entrySet()) {
+                LevelUpChangeLog.recordChange(LUJSONConsts.LU_GATES, openState.getKey());
+                if (notify) {
+                    LevelUpEventDispatcher.post(openState.getValue()
+                            ? new GateOpenedEvent(openState.getKey())
+                            : new GateClosedEvent(openState.getKey()));
+                }
+            }
+        } finally {
+            LevelUpMetrics.exit("GateStorage.setOpenStates", startNanos);
+        }
+    }
+
+
+    /**
+     * Bitset Layout *
+     */
+
+    /**
+     * Checks whether open flags are stored in the bitset layout.
+     *
+     * @return <code>true</code> if the open flags of all gates are packed into bitsets
+     */
+    public static boolean isBitsetLayout() {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            return sOpenFlags.isEnabled();
+        } finally {
+            LevelUpMetrics.exit("GateStorage.isBitsetLayout", startNanos);
+        }
+    }
+
+    /**
+     * Switches to the bitset layout, migrating the open flags stored under
+     * per-gate keys.  Gates get their bits in the order of the current model,
+     * and gates added later get theirs when they're first set.  The switch
+     * is persisted, so it only needs to be done once; calling this again is
+     * a no-op.
+     */
+    public static void enableBitsetLayout() {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            List<String> gateIds = new ArrayList<String>();
+            LevelUpModel model = LevelUp.getModel();
+            if (model != null) {
+                LevelUpModelIndex.EntityTable gates = model.getIndex().getGates();
+                for (int i = 0; i < gates.size(); i++) {
+                    gateIds.add(gates.getId(i));
+                }
+            }
+
+            sOpenFlags.enable(DB_GATE_KEY_PREFIX, ".open", gateIds);
+        } finally {
+            LevelUpMetrics.exit("GateStorage.enableBitsetLayout", startNanos);
+        }
+    }
+
+    // the layout is read again from the storage when it's next needed
+    static void unloadLayout() {
+        sOpenFlags.unload();
+    }
+
+    // see GateHandle.getOpenVersion()
+    static long getOpenVersion(String gateId) {
+        return sOpenFlags.getVersion(gateId);
+    }
+
+    /**
+     * Retrieves the handle of the given gate.  Handles are shared, so
+     * every call with the same id returns the same handle.
+     *
+     * @param gateId the id of the gate
+     * @return the gate's handle
+     */
+    public static GateHandle getHandle(String gateId) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            GateHandle handle = sHandles.get(gateId);
+            if (handle == null) {
+                GateHandle created = new GateHandle(gateId);
+                handle = sHandles.putIfAbsent(gateId, created);
+                if (handle == null) {
+                    handle = created;
+                }
+            }
+            return handle;
+        } finally {
+            LevelUpMetrics.exit("GateStorage.getHandle", startNanos);
+        }
     }
 
     public static final String DB_GATE_KEY_PREFIX = LevelUp.DB_KEY_PREFIX + "gates.";
+
+    private static final FlagBitset sOpenFlags = new FlagBitset(DB_GATE_KEY_PREFIX, "open");
+
+    private static final ConcurrentHashMap<String, GateHandle> sHandles =
+            new ConcurrentHashMap<String, GateHandle>();
 }
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+import java.util.List;
+
+/**
+ * The storage LevelUp persists its state and model in.  By default it's
+ * <code>KeyValueStorage</code>; another backend (e.g. an in-memory one for
+ * benchmarks) can be set with <code>LUKeyValueStorage.setBackend()</code>.
+ */
+public interface IStorageBackend {
+
+    String getValue(String key);
+
+    void setValue(String key, String val);
+
+    void deleteKeyValue(String key);
+
+    /**
+     * @return all the keys in the storage
+     */
+    List<String> getAllKeys();
+}
@@ -59,5 +59,22 @@ public class LUJSONConsts {
     public static final String LU_WORLDS = "worlds";
     public static final String LU_ASSOCWORLDID = "associatedWorldId";
 
+    /**
+     * State *
+     */
+    public static final String LU_LEVELS = "levels";
+    public static final String LU_STATE_OPEN = "open";
+    public static final String LU_STATE_COMPLETED = "completed";
+    public static final String LU_STATE_ASSIGNED_REWARD = "assignedReward";
+    public static final String LU_STATE_LAST_COMPLETED_INNER_WORLD = "lastCompletedInnerWorld";
+    public static final String LU_STATE_STARTED = "started";
+    public static final String LU_STATE_PLAYED = "played";
+    public static final String LU_STATE_TIMES_COMPLETED = "timesCompleted";
+    public static final String LU_STATE_LAST = "last";
+    public static final String LU_STATE_SLOWEST = "slowest";
+    public static final String LU_STATE_FASTEST = "fastest";
+    public static final String LU_STATE_LATEST = "latest";
+    public static final String LU_STATE_RECORD = "record";
+
 }
 
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+import android.text.TextUtils;
+
+import com.soomla.SoomlaUtils;
+import com.soomla.levelup.LevelUp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * A persisted index of the state keys LevelUp has written, split by
+ * entity kind (gates, levels, missions, scores and worlds).
+ * <p/>
+ * The registry is a superset: a key is added the first time it's written
+ * and stays registered when it's deleted, so toggling a value never rewrites
+ * the registry.  Only <code>clear()</code> shrinks it.
+ * <p/>
+ * Every kind's keys are persisted in segments of <code>SEGMENT_KEYS</code>
+ * keys, in the order they were registered.  New keys only ever go into the
+ * last segments, so registering a key rewrites one segment instead of the
+ * kind's whole list.
+ * <p/>
+ * When no registry was persisted yet (e.g. after upgrading), it is built
+ * once from a scan of all the keys in the storage.
+ */
+class LUKeyRegistry {
+
+    static final String[] KIND_PREFIXES = {
+            GateStorage.DB_GATE_KEY_PREFIX,
+            LevelStorage.DB_LEVEL_KEY_PREFIX,
+            MissionStorage.DB_MISSION_KEY_PREFIX,
+            ScoreStorage.DB_SCORE_KEY_PREFIX,
+            WorldStorage.DB_WORLD_KEY_PREFIX
+    };
+
+    /**
+     * Finds the entity kind of the given key.
+     *
+     * @param key a storage key
+     * @return the index of the kind in <code>KIND_PREFIXES</code>, or <code>-1</code>
+     * if the key is not a LevelUp state key
+     */
+    static int kindOf(String key) {
+        for (int i = 0; i < KIND_PREFIXES.length; i++) {
+            if (key.startsWith(KIND_PREFIXES[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Registers the given key, persisting its kind's last segment if the key is new.
+     *
+     * @param key the written key
+     */
+    synchronized void register(String key) {
+        int kind = kindOf(key);
+        if (kind < 0) {
+            return;
+        }
+
+        ensureLoaded();
+        KindKeys kindKeys = mKinds[kind];
+        if (kindKeys.add(key)) {
+            persist(kind, kindKeys.list.size() - 1);
+        }
+    }
+
+    /**
+     * Registers all the given keys, persisting the changed segments of every
+     * kind once.
+     *
+     * @param keys the written keys
+     * @return the number of keys that weren't registered yet
+     */
+    synchronized int registerAll(Collection<String> keys) {
+        ensureLoaded();
+
+        int added = 0;
+        int[] firstAdded = new int[KIND_PREFIXES.length];
+        Arrays.fill(firstAdded, -1);
+        for (String key : keys) {
+            int kind = kindOf(key);
+            if (kind >= 0 && mKinds[kind].add(key)) {
+                added++;
+                if (firstAdded[kind] < 0) {
+                    firstAdded[kind] = mKinds[kind].list.size() - 1;
+                }
+            }
+        }
+
+        for (int kind = 0; kind < firstAdded.length; kind++) {
+            if (firstAdded[kind] >= 0) {
+                persist(kind, firstAdded[kind]);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Empties the registry.  Call it after deleting all the registered keys.
+     */
+    synchronized void clear() {
+        ensureLoaded();
+        for (int kind = 0; kind < mKinds.length; kind++) {
+            KindKeys kindKeys = mKinds[kind];
+            if (kindKeys.list.isEmpty()) {
+                continue;
+            }
+
+            for (int segment = 0; segment < segmentCount(kindKeys.list.size()); segment++) {
+                LUKeyValueStorage.backend().deleteKeyValue(keySegment(kind, segment));
+            }
+            LUKeyValueStorage.backend().deleteKeyValue(keyRegistry(kind));
+            kindKeys.clear();
+        }
+    }
+
+    /**
+     * Retrieves the registered keys of a single kind.
+     *
+     * @param kindPrefix the key prefix of the kind, one of <code>KIND_PREFIXES</code>
+     * @return a copy of the registered keys
+     */
+    synchronized List<String> getKeys(String kindPrefix) {
+        ensureLoaded();
+
+        int kind = kindOf(kindPrefix);
+        if (kind < 0) {
+            return new ArrayList<String>();
+        }
+        return new ArrayList<String>(mKinds[kind].list);
+    }
+
+    /**
+     * @return a copy of all the registered keys
+     */
+    synchronized List<String> getAllKeys() {
+        ensureLoaded();
+
+        List<String> keys = new ArrayList<String>();
+        for (KindKeys kindKeys : mKinds) {
+            keys.addAll(kindKeys.list);
+        }
+        return keys;
+    }
+
+    /**
+     * Drops the loaded registry, so it's loaded again from the storage when
+     * it's next used.
+     */
+    synchronized void unload() {
+        mKinds = null;
+    }
+
+    private void ensureLoaded() {
+        if (mKinds != null) {
+            return;
+        }
+
+        mKinds = new KindKeys[KIND_PREFIXES.length];
+        for (int kind = 0; kind < mKinds.length; kind++) {
+            mKinds[kind] = new KindKeys();
+        }
+
+        if (REGISTRY_VERSION.equals(LUKeyValueStorage.backend().getValue(DB_REGISTRY_KEY))) {
+            for (int kind = 0; kind < KIND_PREFIXES.length; kind++) {
+                String count = LUKeyValueStorage.backend().getValue(keyRegistry(kind));
+                int segments = TextUtils.isEmpty(count) ? 0 : Integer.parseInt(count);
+                for (int segment = 0; segment < segments; segment++) {
+                    String val = LUKeyValueStorage.backend().getValue(keySegment(kind, segment));
+                    if (!TextUtils.isEmpty(val)) {
+                        for (String key : val.split(SEPARATOR)) {
+                            mKinds[kind].add(key);
+                        }
+                    }
+                }
+            }
+            return;
+        }
+
+        // first run with this registry, build it from the whole storage once
+        for (String key : LUKeyValueStorage.backend().getAllKeys()) {
+            int kind = kindOf(key);
+            if (kind >= 0) {
+                mKinds[kind].add(key);
+            }
+        }
+        for (int kind = 0; kind < KIND_PREFIXES.length; kind++) {
+            if (!mKinds[kind].list.isEmpty()) {
+                persist(kind, 0);
+            }
+        }
+        LUKeyValueStorage.backend().setValue(DB_REGISTRY_KEY, REGISTRY_VERSION);
+
+        SoomlaUtils.LogDebug(TAG, "Built the key registry from storage");
+    }
+
+    // writes the segments holding the keys from the given index on
+    private void persist(int kind, int fromIndex) {
+        List<String> keys = mKinds[kind].list;
+        int segments = segmentCount(keys.size());
+        for (int segment = fromIndex / SEGMENT_KEYS; segment < segments; segment++) {
+            List<String> segmentKeys = keys.subList(segment * SEGMENT_KEYS,
+                    Math.min((segment + 1) * SEGMENT_KEYS, keys.size()));
+            LUKeyValueStorage.backend().setValue(keySegment(kind, segment), TextUtils.join(SEPARATOR, segmentKeys));
+        }
+
+        // the count only changes when a segment is started
+        if (segmentCount(fromIndex) != segments) {
+            LUKeyValueStorage.backend().setValue(keyRegistry(kind), String.valueOf(segments));
+        }
+    }
+
+    private static int segmentCount(int keys) {
+        return (keys + SEGMENT_KEYS - 1) / SEGMENT_KEYS;
+    }
+
+    private static String keyRegistry(int kind) {
+        String prefix = KIND_PREFIXES[kind];
+        return DB_REGISTRY_KEY + "." + prefix.substring(LevelUp.DB_KEY_PREFIX.length(), prefix.length() - 1);
+    }
+
+    private static String keySegment(int kind, int segment) {
+        return keyRegistry(kind) + "." + segment;
+    }
+
+    // the keys of one kind, in the order they were registered
+    private static class KindKeys {
+
+        boolean add(String key) {
+            if (!set.add(key)) {
+                return false;
+            }
+            list.add(key);
+            return true;
+        }
+
+        void clear() {
+            set.clear();
+            list.clear();
+        }
+
+        final HashSet<String> set = new HashSet<String>();
+        final ArrayList<String> list = new ArrayList<String>();
+    }
+
+    // kept outside of the state prefixes so clearing the state keeps the registry
+    private static final String DB_REGISTRY_KEY = LevelUp.DB_KEY_PREFIX + "keys";
+    private static final String REGISTRY_VERSION = "2";
+    private static final int SEGMENT_KEYS = 64;
+    private static final String SEPARATOR = "\n";
+    private static final String TAG = "SOOMLA LUKeyRegistry";
+
+    private KindKeys[] mKinds;
+}
@@ -0,0 +1,687 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+import com.soomla.SoomlaUtils;
+import com.soomla.data.KeyValueStorage;
+import com.soomla.levelup.LevelUp;
+import com.soomla.levelup.metrics.LevelUpMetrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The single point through which LevelUp reads and writes its state in
+ * <code>KeyValueStorage</code>.
+ * <p/>
+ * On top of plain access it supports batches: between <code>beginBatch()</code>
+ * and <code>commitBatch()</code> all mutations made on the calling thread are
+ * collected in memory (later writes to a key replace earlier ones) and are
+ * only written out on commit.  Reads on that thread see the collected
+ * mutations; other threads keep seeing the stored values until the commit.
+ * <code>abortBatch()</code> drops the collected mutations, leaving the storage
+ * untouched.
+ * <p/>
+ * In write-behind mode (see <code>enableWriteBehind()</code>) mutations
+ * outside of batches are kept in memory and return right away; a background
+ * thread persists them periodically, writing only the latest value of every
+ * key.  Reads on all threads see the pending mutations.
+ * <p/>
+ * With the read cache on (see <code>enableReadCache()</code>) the most
+ * recently read values, absent ones included, are kept in memory.  Writes
+ * made through this class invalidate them.
+ * <p/>
+ * It also keeps a persisted registry of the state keys LevelUp wrote, so
+ * LevelUp can enumerate and export its own keys without scanning (and
+ * decrypting) every key in the app's storage.  Only writes made through
+ * this class are registered: code that writes LevelUp's state keys to
+ * <code>KeyValueStorage</code> directly (e.g. a bridge, or older app code)
+ * must call <code>rescanLevelUpKeys()</code> afterwards, or exports and
+ * resets treat those keys as absent.
+ */
+public class LUKeyValueStorage {
+
+    public static String getValue(String key) {
+        Batch batch = sBatch.get();
+        if (batch != null && batch.mutations.containsKey(key)) {
+            return batch.mutations.get(key);
+        }
+
+        Prefetch prefetch = sPrefetch.get();
+        if (prefetch != null && LUKeyRegistry.kindOf(key) >= 0) {
+            return prefetch.values.get(key);
+        }
+
+        return getStoredValue(key);
+    }
+
+    // reads past the calling thread's prefetch, which misses other threads' later writes
+    static String getCurrentValue(String key) {
+        Batch batch = sBatch.get();
+        if (batch != null && batch.mutations.containsKey(key)) {
+            return batch.mutations.get(key);
+        }
+
+        return getStoredValue(key);
+    }
+
+    private static String getStoredValue(String key) {
+        WriteBehindQueue writeBehind = sWriteBehind;
+        if (writeBehind != null) {
+            String val = writeBehind.get(key);
+            if (val != WriteBehindQueue.NOT_PENDING) {
+                return val;
+            }
+        }
+
+        ReadCache readCache = sReadCache;
+        if (readCache == null) {
+            return sMeteredBackend.getValue(key);
+        }
+
+        // the version is taken before reading, so a concurrent write makes the entry stale
+        long version = getWriteVersion(stripeOf(key));
+        String val = readCache.get(key, version);
+        if (val == ReadCache.NOT_CACHED) {
+            val = sMeteredBackend.getValue(key);
+            readCache.put(key, val, version);
+        }
+        return val;
+    }
+
+    public static void setValue(String key, String val) {
+        endPrefetchOnWrite();
+
+        Batch batch = sBatch.get();
+        if (batch != null) {
+            batch.mutations.put(key, val);
+            return;
+        }
+
+        // a queue that was shut down meanwhile refuses the value
+        WriteBehindQueue writeBehind = sWriteBehind;
+        if (writeBehind == null || !writeBehind.put(key, val)) {
+            sMeteredBackend.setValue(key, val);
+            sRegistry.register(key);
+        }
+        sStripeWriteVersions.incrementAndGet(stripeOf(key));
+    }
+
+    public static void deleteKeyValue(String key) {
+        endPrefetchOnWrite();
+
+        Batch batch = sBatch.get();
+        if (batch != null) {
+            batch.mutations.put(key, null);
+            return;
+        }
+
+        WriteBehindQueue writeBehind = sWriteBehind;
+        if (writeBehind == null || !writeBehind.delete(key)) {
+            sMeteredBackend.deleteKeyValue(key);
+        }
+        sStripeWriteVersions.incrementAndGet(stripeOf(key));
+    }
+
+    /**
+     * Retrieves the keys LevelUp may have written for one kind of entity.
+     * Some of the keys might have been deleted since.
+     *
+     * @param kindPrefix the key prefix of the kind, e.g. <code>GateStorage.DB_GATE_KEY_PREFIX</code>
+     * @return the registered keys of the kind
+     */
+    public static List<String> getLevelUpKeys(String kindPrefix) {
+        flush();
+        return sRegistry.getKeys(kindPrefix);
+    }
+
+    /**
+     * Retrieves all the state keys LevelUp may have written.
+     * Some of the keys might have been deleted since, and keys written
+     * without this class are only included once <code>rescanLevelUpKeys()</code>
+     * found them.
+     *
+     * @return all the registered keys
+     */
+    public static List<String> getAllLevelUpKeys() {
+        flush();
+        return sRegistry.getAllKeys();
+    }
+
+    /**
+     * Reads the given keys in one pass.  Keys missing from the key registry
+     * were never written by LevelUp, so they are known to be absent without
+     * reading them from the storage.
+     *
+     * @param keys the keys to read
+     * @return the values of the keys, <code>null</code> for absent ones
+     */
+    public static Map<String, String> getValues(Collection<String> keys) {
+        // pending keys aren't registered yet
+        flush();
+
+        Set<String> registered = new HashSet<String>(sRegistry.getAllKeys());
+        Map<String, String> values = new HashMap<String, String>(keys.size() * 2);
+        Batch batch = sBatch.get();
+        for (String key : keys) {
+            boolean mutated = batch != null && batch.mutations.containsKey(key);
+            if (mutated || registered.contains(key) || LUKeyRegistry.kindOf(key) < 0) {
+                values.put(key, getValue(key));
+            } else {
+                values.put(key, null);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads all of LevelUp's state keys in one pass and serves the reads of
+     * the calling thread from them until <code>endPrefetch()</code>, so a
+     * whole-state export costs one read per stored key instead of one per
+     * field of every entity.  Other threads' writes made after the prefetch
+     * aren't seen, and a write on the calling thread ends the prefetch.
+     * Prefetches can be nested, only the outermost one reads.
+     */
+    public static void beginPrefetch() {
+        Prefetch prefetch = sPrefetch.get();
+        if (prefetch != null) {
+            prefetch.depth++;
+            return;
+        }
+
+        sPrefetch.set(new Prefetch(getValues(getAllLevelUpKeys())));
+    }
+
+    /**
+     * Starts a prefetch with values read earlier, so several threads can
+     * share a single read.  The values are only read, never changed.
+     *
+     * @param values the values of all of LevelUp's keys, as returned from
+     *               <code>getValues(getAllLevelUpKeys())</code>
+     */
+    public static void beginPrefetch(Map<String, String> values) {
+        Prefetch prefetch = sPrefetch.get();
+        if (prefetch != null) {
+            prefetch.depth++;
+            return;
+        }
+
+        sPrefetch.set(new Prefetch(values));
+    }
+
+    /**
+     * Ends a prefetch started with <code>beginPrefetch()</code>.
+     */
+    public static void endPrefetch() {
+        Prefetch prefetch = sPrefetch.get();
+        if (prefetch == null) {
+            return;
+        }
+
+        if (prefetch.depth > 0) {
+            prefetch.depth--;
+        } else {
+            sPrefetch.remove();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the calling thread's reads are served from a prefetch
+     */
+    public static boolean isPrefetching() {
+        return sPrefetch.get() != null;
+    }
+
+    // a value decoded from the calling thread's prefetch, kept until the prefetch ends
+    static Object getPrefetchedDecoded(String key) {
+        Prefetch prefetch = sPrefetch.get();
+        return prefetch != null ? prefetch.decoded.get(key) : null;
+    }
+
+    static void putPrefetchedDecoded(String key, Object decoded) {
+        Prefetch prefetch = sPrefetch.get();
+        if (prefetch != null) {
+            prefetch.decoded.put(key, decoded);
+        }
+    }
+
+    private static void endPrefetchOnWrite() {
+        Prefetch prefetch = sPrefetch.get();
+        if (prefetch != null) {
+            // the prefetched values are stale now, read through from here on
+            sPrefetch.remove();
+        }
+    }
+
+    /**
+     * Registers the LevelUp state keys that were written to the storage
+     * without going through this class, by scanning all the keys in the
+     * storage once.
+     *
+     * @return the number of keys that weren't registered yet
+     */
+    public static int rescanLevelUpKeys() {
+        flush();
+        return sRegistry.registerAll(scanLevelUpKeys());
+    }
+
+    /**
+     * Deletes all of LevelUp's registered state keys and empties the key
+     * registry.  State keys written without going through this class are
+     * only deleted once <code>rescanLevelUpKeys()</code> registered them.
+     * Inside a batch the deletion is collected like any other mutation.
+     */
+    public static void deleteAllLevelUpKeys() {
+        endPrefetchOnWrite();
+
+        // pending keys aren't registered yet
+        flush();
+
+        List<String> keys = sRegistry.getAllKeys();
+
+        Batch batch = sBatch.get();
+        for (String key : keys) {
+            if (batch != null) {
+                batch.mutations.put(key, null);
+            } else {
+                sMeteredBackend.deleteKeyValue(key);
+            }
+        }
+
+        if (batch != null) {
+            batch.clearRegistry = true;
+            batch.progress = null;
+        } else {
+            sRegistry.clear();
+            invalidateAll();
+        }
+    }
+
+    private static List<String> scanLevelUpKeys() {
+        List<String> keys = new ArrayList<String>();
+        for (String key : sMeteredBackend.getAllKeys()) {
+            if (LUKeyRegistry.kindOf(key) >= 0) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Starts collecting the mutations of the calling thread.
+     */
+    public static void beginBatch() {
+        if (sBatch.get() != null) {
+            SoomlaUtils.LogError(TAG, "A batch is already in progress, its mutations are merged");
+            return;
+        }
+
+        sBatch.set(new Batch());
+    }
+
+    /**
+     * Writes out all the mutations collected since <code>beginBatch()</code>,
+     * and records the entities they changed in <code>LevelUpChangeLog</code>.
+     *
+     * @return the number of keys written or deleted
+     */
+    public static int commitBatch() {
+        return commitBatch(true);
+    }
+
+    /**
+     * Writes out all the mutations collected since <code>beginBatch()</code>.
+     *
+     * @param recordChanges <code>false</code> to keep the changed entities out
+     *                      of <code>LevelUpChangeLog</code>, e.g. when the batch
+     *                      replays changes made elsewhere
+     * @return the number of keys written or deleted
+     */
+    public static int commitBatch(boolean recordChanges) {
+        Batch batch = sBatch.get();
+        if (batch == null) {
+            SoomlaUtils.LogError(TAG, "No batch in progress to commit");
+            return 0;
+        }
+        sBatch.remove();
+
+        // a batch is written through, after the mutations queued before it
+        flush();
+
+        List<String> writtenKeys = new ArrayList<String>(batch.mutations.size());
+        for (Map.Entry<String, String> mutation : batch.mutations.entrySet()) {
+            if (mutation.getValue() != null) {
+                sMeteredBackend.setValue(mutation.getKey(), mutation.getValue());
+                writtenKeys.add(mutation.getKey());
+            } else {
+                sMeteredBackend.deleteKeyValue(mutation.getKey());
+            }
+        }
+
+        if (batch.clearRegistry) {
+            sRegistry.clear();
+        }
+        sRegistry.registerAll(writtenKeys);
+        invalidateAll();
+
+        if (recordChanges) {
+            for (LevelUpChangeLog.Change change : batch.changes) {
+                LevelUpChangeLog.recordChange(change.getSection(), change.getItemId());
+            }
+        }
+
+        return batch.mutations.size();
+    }
+
+    // keeps a change made inside a batch for the commit, returns false outside of batches
+    static boolean deferChange(String section, String itemId) {
+        Batch batch = sBatch.get();
+        if (batch == null) {
+            return false;
+        }
+
+        batch.changes.add(new LevelUpChangeLog.Change(section, itemId));
+        return true;
+    }
+
+    /**
+     * Drops all the mutations collected since <code>beginBatch()</code>.
+     */
+    public static void abortBatch() {
+        sBatch.remove();
+    }
+
+    /**
+     * @return <code>true</code> if the calling thread is collecting a batch
+     */
+    public static boolean isInBatch() {
+        return sBatch.get() != null;
+    }
+
+    // the progress aggregates of the calling thread's batch, dropped with the batch
+    static ProgressTracker getBatchProgress() {
+        Batch batch = sBatch.get();
+        return batch != null ? batch.progress : null;
+    }
+
+    static void setBatchProgress(ProgressTracker progress) {
+        Batch batch = sBatch.get();
+        if (batch != null) {
+            batch.progress = progress;
+        }
+    }
+
+    /**
+     * Replaces the storage LevelUp persists to.  All pending mutations are
+     * written to the previous backend first, and everything cached from it
+     * (the model, the key registry, the level and flag layouts) is dropped.  The
+     * model is read from the new backend too, so it has to be stored there.
+     *
+     * @param backend the new backend, or <code>null</code> to go back to <code>KeyValueStorage</code>
+     */
+    public static synchronized void setBackend(IStorageBackend backend) {
+        flush();
+        sBackend = backend != null ? backend : DEFAULT_BACKEND;
+
+        sRegistry.unload();
+        invalidateAll();
+        LevelUpChangeLog.unload();
+        LevelStorage.unloadLayout();
+        GateStorage.unloadLayout();
+        WorldStorage.unloadLayout();
+        LevelUp.invalidateModel();
+    }
+
+    /**
+     * @return the storage LevelUp persists to
+     */
+    public static IStorageBackend getBackend() {
+        return sBackend;
+    }
+
+    // the current backend, recording every access in LevelUpMetrics
+    static IStorageBackend backend() {
+        return sMeteredBackend;
+    }
+
+    /**
+     * Switches to write-behind mode: mutations made outside of batches are
+     * kept in memory and persisted by a background thread every
+     * <code>flushIntervalMillis</code>.  Until they are persisted they can be
+     * lost if the process dies, so call <code>flush()</code> when the app
+     * goes to the background.
+     *
+     * @param flushIntervalMillis the time between background flushes
+     */
+    public static synchronized void enableWriteBehind(long flushIntervalMillis) {
+        if (flushIntervalMillis <= 0) {
+            SoomlaUtils.LogError(TAG, "Flush interval must be positive, got: " + flushIntervalMillis);
+            return;
+        }
+
+        disableWriteBehind();
+        sWriteBehind = new WriteBehindQueue(sRegistry, flushIntervalMillis);
+    }
+
+    /**
+     * Persists all pending mutations and goes back to writing every mutation
+     * through on the calling thread.  Pending mutations that can't be
+     * persisted are logged and lost.
+     */
+    public static synchronized void disableWriteBehind() {
+        WriteBehindQueue writeBehind = sWriteBehind;
+        if (writeBehind != null) {
+            // writers are refused and write through once the queue is flushed,
+            // so none writes through while older values are still pending
+            int lost = writeBehind.shutdown();
+            sWriteBehind = null;
+            if (lost > 0) {
+                // cached values may be lost ones
+                invalidateAll();
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if mutations are persisted by a background thread
+     */
+    public static boolean isWriteBehind() {
+        return sWriteBehind != null;
+    }
+
+    /**
+     * Persists all the mutations pending in write-behind mode on the calling
+     * thread.  Does nothing if write-behind mode is off.
+     *
+     * @return the number of keys written or deleted, <code>0</code> if
+     * writing failed and the mutations were left for the next flush
+     */
+    public static int flush() {
+        WriteBehindQueue writeBehind = sWriteBehind;
+        return writeBehind != null ? writeBehind.flush() : 0;
+    }
+
+    /**
+     * Enables a read cache holding up to <code>maxEntries</code> of the most
+     * recently read values, absent keys included.  Only writes made through
+     * LevelUp invalidate it, so don't enable it if anything else writes
+     * LevelUp's keys to the storage.
+     *
+     * @param maxEntries the maximal number of cached keys
+     */
+    public static synchronized void enableReadCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            SoomlaUtils.LogError(TAG, "Read cache size must be positive, got: " + maxEntries);
+            return;
+        }
+        sReadCache = new ReadCache(maxEntries);
+    }
+
+    public static synchronized void disableReadCache() {
+        sReadCache = null;
+    }
+
+    /**
+     * @return the statistics of the read cache, or <code>null</code> if it's disabled
+     */
+    public static ReadCacheStats getReadCacheStats() {
+        ReadCache readCache = sReadCache;
+        return readCache != null ? readCache.getStats() : null;
+    }
+
+    public static void resetReadCacheStats() {
+        ReadCache readCache = sReadCache;
+        if (readCache != null) {
+            readCache.resetStats();
+        }
+    }
+
+    /**
+     * Write Versions *
+     */
+
+    // values read outside of a batch stay current as long as the write
+    // version of their key's stripe doesn't change
+    static int stripeOf(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return h & (WRITE_STRIPES - 1);
+    }
+
+    static long getWriteVersion(int stripe) {
+        return sGlobalWriteVersion.get() + sStripeWriteVersions.get(stripe);
+    }
+
+    // changes only with invalidateAll(), i.e. on changes that may touch any key
+    static long getGlobalWriteVersion() {
+        return sGlobalWriteVersion.get();
+    }
+
+    // for changes that don't go through setValue() or deleteKeyValue()
+    static void invalidateAll() {
+        sGlobalWriteVersion.incrementAndGet();
+
+        // all entries are stale now, free them
+        ReadCache readCache = sReadCache;
+        if (readCache != null) {
+            readCache.clear();
+        }
+    }
+
+    private static final String TAG = "SOOMLA LUKeyValueStorage";
+    private static final int WRITE_STRIPES = 64;
+
+    private static class Batch {
+        final LinkedHashMap<String, String> mutations = new LinkedHashMap<String, String>();
+        final LinkedHashSet<LevelUpChangeLog.Change> changes = new LinkedHashSet<LevelUpChangeLog.Change>();
+        boolean clearRegistry;
+        ProgressTracker progress;
+    }
+
+    private static class Prefetch {
+
+        Prefetch(Map<String, String> values) {
+            this.values = values;
+        }
+
+        final Map<String, String> values;
+        final HashMap<String, Object> decoded = new HashMap<String, Object>();
+        int depth;
+    }
+
+    private static final IStorageBackend DEFAULT_BACKEND = new IStorageBackend() {
+        @Override
+        public String getValue(String key) {
+            return KeyValueStorage.getValue(key);
+        }
+
+        @Override
+        public void setValue(String key, String val) {
+            KeyValueStorage.setValue(key, val);
+        }
+
+        @Override
+        public void deleteKeyValue(String key) {
+            KeyValueStorage.deleteKeyValue(key);
+        }
+
+        @Override
+        public List<String> getAllKeys() {
+            return KeyValueStorage.getEncryptedKeys();
+        }
+    };
+
+    private static volatile IStorageBackend sBackend = DEFAULT_BACKEND;
+
+    private static final IStorageBackend sMeteredBackend = new IStorageBackend() {
+        @Override
+        public String getValue(String key) {
+            long startNanos = LevelUpMetrics.start();
+            try {
+                return sBackend.getValue(key);
+            } finally {
+                LevelUpMetrics.stop(LevelUpMetrics.STORAGE_GET, startNanos);
+            }
+        }
+
+        @Override
+        public void setValue(String key, String val) {
+            long startNanos = LevelUpMetrics.start();
+            try {
+                sBackend.setValue(key, val);
+            } finally {
+                LevelUpMetrics.stop(LevelUpMetrics.STORAGE_SET, startNanos);
+            }
+        }
+
+        @Override
+        public void deleteKeyValue(String key) {
+            long startNanos = LevelUpMetrics.start();
+            try {
+                sBackend.deleteKeyValue(key);
+            } finally {
+                LevelUpMetrics.stop(LevelUpMetrics.STORAGE_DELETE, startNanos);
+            }
+        }
+
+        @Override
+        public List<String> getAllKeys() {
+            long startNanos = LevelUpMetrics.start();
+            try {
+                return sBackend.getAllKeys();
+            } finally {
+                LevelUpMetrics.stop(LevelUpMetrics.STORAGE_GET_ALL_KEYS, startNanos);
+            }
+        }
+    };
+    private static final LUKeyRegistry sRegistry = new LUKeyRegistry();
+    private static final ThreadLocal<Batch> sBatch = new ThreadLocal<Batch>();
+    private static final ThreadLocal<Prefetch> sPrefetch = new ThreadLocal<Prefetch>();
+    private static volatile WriteBehindQueue sWriteBehind;
+    private static volatile ReadCache sReadCache;
+    private static final AtomicLong sGlobalWriteVersion = new AtomicLong();
+    private static final AtomicLongArray sStripeWriteVersions = new AtomicLongArray(WRITE_STRIPES);
+}
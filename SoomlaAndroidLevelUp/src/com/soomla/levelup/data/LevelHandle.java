@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+/**
+ * A handle on a single level's state.  Get one with
+ * <code>LevelStorage.getHandle()</code> and keep it: its keys are built once
+ * and its getters are served from cache until the level's values change, so
+ * repeated reads neither concatenate keys nor hit the storage.
+ * <p/>
+ * Handles always agree with the static <code>LevelStorage</code> methods,
+ * which the setters go through (so events are posted as usual).
+ */
+public class LevelHandle {
+
+    LevelHandle(String levelId) {
+        mLevelId = levelId;
+        mRecord = new CachedKey(LevelStorage.keyRecord(levelId));
+        mTimesStarted = new CachedKey(LevelStorage.keyTimesStarted(levelId));
+        mTimesPlayed = new CachedKey(LevelStorage.keyTimesPlayed(levelId));
+        mTimesCompleted = new CachedKey(LevelStorage.keyTimesCompleted(levelId));
+        mLastDuration = new CachedKey(LevelStorage.keyLastDuration(levelId));
+        mSlowestDuration = new CachedKey(LevelStorage.keySlowestDuration(levelId));
+        mFastestDuration = new CachedKey(LevelStorage.keyFastestDuration(levelId));
+    }
+
+    public String getLevelId() {
+        return mLevelId;
+    }
+
+    public int getTimesStarted() {
+        if (LevelStorage.isPackedLayout()) {
+            return mRecord.getLevelRecord().getTimesStarted();
+        }
+        return (int) mTimesStarted.getLong(0);
+    }
+
+    public int incTimesStarted() {
+        return LevelStorage.incTimesStarted(mLevelId);
+    }
+
+    public int decTimesStarted() {
+        return LevelStorage.decTimesStarted(mLevelId);
+    }
+
+    public void setTimesStarted(int started) {
+        LevelStorage.setTimesStarted(mLevelId, started);
+    }
+
+    public int getTimesPlayed() {
+        if (LevelStorage.isPackedLayout()) {
+            return mRecord.getLevelRecord().getTimesPlayed();
+        }
+        return (int) mTimesPlayed.getLong(0);
+    }
+
+    public int incTimesPlayed() {
+        return LevelStorage.incTimesPlayed(mLevelId);
+    }
+
+    public int decTimesPlayed() {
+        return LevelStorage.decTimesPlayed(mLevelId);
+    }
+
+    public void setTimesPlayed(int played) {
+        LevelStorage.setTimesPlayed(mLevelId, played);
+    }
+
+    public int getTimesCompleted() {
+        if (LevelStorage.isPackedLayout()) {
+            return mRecord.getLevelRecord().getTimesCompleted();
+        }
+        return (int) mTimesCompleted.getLong(0);
+    }
+
+    public int incTimesCompleted() {
+        return LevelStorage.incTimesCompleted(mLevelId);
+    }
+
+    public int decTimesCompleted() {
+        return LevelStorage.decTimesCompleted(mLevelId);
+    }
+
+    public void setTimesCompleted(int completed) {
+        LevelStorage.setTimesCompleted(mLevelId, completed);
+    }
+
+    public long getLastDurationMillis() {
+        if (LevelStorage.isPackedLayout()) {
+            return mRecord.getLevelRecord().getLastDurationMillis();
+        }
+        return mLastDuration.getLong(0);
+    }
+
+    public void setLastDurationMillis(long duration) {
+        LevelStorage.setLastDurationMillis(mLevelId, duration);
+    }
+
+    public long getSlowestDurationMillis() {
+        if (LevelStorage.isPackedLayout()) {
+            return mRecord.getLevelRecord().getSlowestDurationMillis();
+        }
+        return mSlowestDuration.getLong(0);
+    }
+
+    public void setSlowestDurationMillis(long duration) {
+        LevelStorage.setSlowestDurationMillis(mLevelId, duration);
+    }
+
+    public long getFastestDurationMillis() {
+        if (LevelStorage.isPackedLayout()) {
+            return mRecord.getLevelRecord().getFastestDurationMillis();
+        }
+        return mFastestDuration.getLong(0);
+    }
+
+    public void setFastestDurationMillis(long duration) {
+        LevelStorage.setFastestDurationMillis(mLevelId, duration);
+    }
+
+    private final String mLevelId;
+    private final CachedKey mRecord;
+    private final CachedKey mTimesStarted;
+    private final CachedKey mTimesPlayed;
+    private final CachedKey mTimesCompleted;
+    private final CachedKey mLastDuration;
+    private final CachedKey mSlowestDuration;
+    private final CachedKey mFastestDuration;
+}
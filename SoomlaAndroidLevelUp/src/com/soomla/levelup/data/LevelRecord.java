@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+import android.text.TextUtils;
+
+import com.soomla.SoomlaUtils;
+
+/**
+ * All the persisted counters of a single level.
+ * In the packed layout of <code>LevelStorage</code> a level's record is
+ * stored encoded under a single key.
+ */
+public class LevelRecord {
+
+    public int getTimesStarted() {
+        return mTimesStarted;
+    }
+
+    public void setTimesStarted(int timesStarted) {
+        mTimesStarted = timesStarted;
+    }
+
+    public int getTimesPlayed() {
+        return mTimesPlayed;
+    }
+
+    public void setTimesPlayed(int timesPlayed) {
+        mTimesPlayed = timesPlayed;
+    }
+
+    public int getTimesCompleted() {
+        return mTimesCompleted;
+    }
+
+    public void setTimesCompleted(int timesCompleted) {
+        mTimesCompleted = timesCompleted;
+    }
+
+    public long getLastDurationMillis() {
+        return mLastDurationMillis;
+    }
+
+    public void setLastDurationMillis(long lastDurationMillis) {
+        mLastDurationMillis = lastDurationMillis;
+    }
+
+    public long getSlowestDurationMillis() {
+        return mSlowestDurationMillis;
+    }
+
+    public void setSlowestDurationMillis(long slowestDurationMillis) {
+        mSlowestDurationMillis = slowestDurationMillis;
+    }
+
+    public long getFastestDurationMillis() {
+        return mFastestDurationMillis;
+    }
+
+    public void setFastestDurationMillis(long fastestDurationMillis) {
+        mFastestDurationMillis = fastestDurationMillis;
+    }
+
+    /**
+     * Encodes the record as
+     * <code>started,played,timesCompleted,last,slowest,fastest</code>.
+     *
+     * @return the encoded record
+     */
+    String encode() {
+        return new StringBuilder(32)
+                .append(mTimesStarted).append(SEPARATOR)
+                .append(mTimesPlayed).append(SEPARATOR)
+                .append(mTimesCompleted).append(SEPARATOR)
+                .append(mLastDurationMillis).append(SEPARATOR)
+                .append(mSlowestDurationMillis).append(SEPARATOR)
+                .append(mFastestDurationMillis)
+                .toString();
+    }
+
+    /**
+     * Decodes a record created with <code>encode()</code>.
+     *
+     * @param val the encoded record, may be empty
+     * @return the decoded record, all zeros if <code>val</code> is empty or malformed
+     */
+    static LevelRecord decode(String val) {
+        LevelRecord record = new LevelRecord();
+        if (TextUtils.isEmpty(val)) {
+            return record;
+        }
+
+        String[] fields = val.split(String.valueOf(SEPARATOR));
+        if (fields.length != FIELD_COUNT) {
+            SoomlaUtils.LogError(TAG, "Malformed level record: " + val);
+            return record;
+        }
+
+        try {
+            record.mTimesStarted = Integer.parseInt(fields[0]);
+            record.mTimesPlayed = Integer.parseInt(fields[1]);
+            record.mTimesCompleted = Integer.parseInt(fields[2]);
+            record.mLastDurationMillis = Long.parseLong(fields[3]);
+            record.mSlowestDurationMillis = Long.parseLong(fields[4]);
+            record.mFastestDurationMillis = Long.parseLong(fields[5]);
+        } catch (NumberFormatException e) {
+            SoomlaUtils.LogError(TAG, "Malformed level record: " + val);
+            return new LevelRecord();
+        }
+
+        return record;
+    }
+
+    private static final char SEPARATOR = ',';
+    private static final int FIELD_COUNT = 6;
+    private static final String TAG = "SOOMLA LevelRecord";
+
+    private int mTimesStarted;
+    private int mTimesPlayed;
+    private int mTimesCompleted;
+    private long mLastDurationMillis;
+    private long mSlowestDurationMillis;
+    private long mFastestDurationMillis;
+}
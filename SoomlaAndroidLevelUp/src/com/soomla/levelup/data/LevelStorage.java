@@ -18,17 +18,30 @@ package com.soomla.levelup.data;
 
 import android.text.TextUtils;
 
-import com.soomla.BusProvider;
-import com.soomla.data.KeyValueStorage;
+import com.soomla.SoomlaUtils;
 import com.soomla.levelup.LevelUp;
 import com.soomla.levelup.events.LevelEndedEvent;
 import com.soomla.levelup.events.LevelStartedEvent;
+import com.soomla.levelup.events.LevelUpEventDispatcher;
+import com.soomla.levelup.metrics.LevelUpMetrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A utility class for persisting and querying the state of levels.
- * Use this class to check if a certain gate is open, or to open it.
+ * Use this class to get or change how many times a level was started,
+ * played and completed, and how long it took to play.
  * This class uses the <code>KeyValueStorage</code> internally for storage.
  * <p/>
+ * By default every counter of a level is kept under its own key.  Once
+ * <code>enablePackedLayout()</code> is called, all of a level's counters are
+ * kept together in a single encoded <code>LevelRecord</code>, so every
+ * operation costs one read and at most one write.
+ * <p/>
  * Created by refaelos on 13/05/14.
  */
 public class LevelStorage {
@@ -37,69 +50,398 @@ public class LevelStorage {
         return DB_LEVEL_KEY_PREFIX + levelId + "." + postfix;
     }
 
-    private static String keyTimesStarted(String levelId) {
+    static String keyTimesStarted(String levelId) {
         return keyLevels(levelId, "started");
     }
 
-    private static String keyTimesPlayed(String levelId) {
+    static String keyTimesPlayed(String levelId) {
         return keyLevels(levelId, "played");
     }
 
-    private static String keyTimesCompleted(String worldId) {
+    static String keyTimesCompleted(String worldId) {
         return keyLevels(worldId, "timesCompleted");
     }
 
-    private static String keyLastDuration(String levelId) {
+    static String keyLastDuration(String levelId) {
         return keyLevels(levelId, "last");
     }
 
-    private static String keySlowestDuration(String levelId) {
+    static String keySlowestDuration(String levelId) {
         return keyLevels(levelId, "slowest");
     }
 
-    private static String keyFastestDuration(String levelId) {
+    static String keyFastestDuration(String levelId) {
         return keyLevels(levelId, "fastest");
     }
 
+    static String keyRecord(String levelId) {
+        return keyLevels(levelId, "record");
+    }
+
+
+    /**
+     * Packed Layout *
+     */
+
+    /**
+     * Checks whether levels are stored in the packed layout.
+     *
+     * @return <code>true</code> if every level is stored as a single record
+     */
+    public static boolean isPackedLayout() {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            Boolean packed = sPackedLayout;
+            if (packed == null) {
+                packed = LAYOUT_PACKED.equals(LUKeyValueStorage.getValue(DB_LEVEL_LAYOUT_KEY));
+                sPackedLayout = packed;
+            }
+            return packed;
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.isPackedLayout", startNanos);
+        }
+    }
+
+    // the layout is read again from the storage when it's next needed
+    static void unloadLayout() {
+        sPackedLayout = null;
+    }
+
+    /**
+     * Switches to the packed layout, migrating all levels stored under the
+     * per-counter keys into records.  The switch is persisted, so it only
+     * needs to be done once; calling this again is a no-op.
+     */
+    public static synchronized void enablePackedLayout() {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            // holding every stripe keeps counter updates from running on the
+            // per-counter keys while they're migrated
+            sLocks.runWithAll(new Runnable() {
+                @Override
+                public void run() {
+                    migrateToPackedLayout();
+                }
+            });
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.enablePackedLayout", startNanos);
+        }
+    }
+
+    // moves every level kept under the per-counter keys into a record
+    private static void migrateToPackedLayout() {
+        if (isPackedLayout()) {
+            return;
+        }
+
+        HashMap<String, LevelRecord> records = new HashMap<String, LevelRecord>();
+        List<String> legacyKeys = new ArrayList<String>();
+        for (String key : LUKeyValueStorage.getLevelUpKeys(DB_LEVEL_KEY_PREFIX)) {
+            String levelKey = key.substring(DB_LEVEL_KEY_PREFIX.length());
+            int dot = levelKey.lastIndexOf('.');
+            if (dot <= 0) {
+                continue;
+            }
+
+            String levelId = levelKey.substring(0, dot);
+            String postfix = levelKey.substring(dot + 1);
+            LevelRecord record = records.get(levelId);
+            if (record == null) {
+                record = new LevelRecord();
+            }
+
+            if (migrateField(record, postfix, LUKeyValueStorage.getValue(key))) {
+                records.put(levelId, record);
+                legacyKeys.add(key);
+            }
+        }
+
+        // records and the layout marker go in before the old keys go away,
+        // so an interrupted migration simply runs again
+        for (Map.Entry<String, LevelRecord> entry : records.entrySet()) {
+            LUKeyValueStorage.setValue(keyRecord(entry.getKey()), entry.getValue().encode());
+        }
+        LUKeyValueStorage.setValue(DB_LEVEL_LAYOUT_KEY, LAYOUT_PACKED);
+        sPackedLayout = true;
+        // values cached from the per-counter keys are stale now
+        LUKeyValueStorage.invalidateAll();
+
+        for (String key : legacyKeys) {
+            LUKeyValueStorage.deleteKeyValue(key);
+        }
+
+        SoomlaUtils.LogDebug(TAG, "Migrated " + records.size() + " levels to the packed layout");
+    }
+
+    /**
+     * Retrieves all the counters of the given level at once.
+     *
+     * @param levelId the id of the level
+     * @return the level's record
+     */
+    public static LevelRecord getLevelRecord(String levelId) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (isPackedLayout()) {
+                return LevelRecord.decode(LUKeyValueStorage.getValue(keyRecord(levelId)));
+            }
+
+            LevelRecord record = new LevelRecord();
+            record.setTimesStarted(getTimesStarted(levelId));
+            record.setTimesPlayed(getTimesPlayed(levelId));
+            record.setTimesCompleted(getTimesCompleted(levelId));
+            record.setLastDurationMillis(getLastDurationMillis(levelId));
+            record.setSlowestDurationMillis(getSlowestDurationMillis(levelId));
+            record.setFastestDurationMillis(getFastestDurationMillis(levelId));
+            return record;
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.getLevelRecord", startNanos);
+        }
+    }
+
+    /**
+     * Overwrites all the counters of the given level at once.
+     *
+     * @param levelId the id of the level
+     * @param record the level's new record
+     */
+    public static void setLevelRecord(String levelId, LevelRecord record) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (isPackedLayout()) {
+                LUKeyValueStorage.setValue(keyRecord(levelId), record.encode());
+                LevelUpChangeLog.recordChange(LUJSONConsts.LU_LEVELS, levelId);
+                ProgressTracker.onLevelChanged(levelId);
+                return;
+            }
+
+            setTimesStarted(levelId, record.getTimesStarted());
+            setTimesPlayed(levelId, record.getTimesPlayed());
+            setTimesCompleted(levelId, record.getTimesCompleted());
+            setLastDurationMillis(levelId, record.getLastDurationMillis());
+            setSlowestDurationMillis(levelId, record.getSlowestDurationMillis());
+            setFastestDurationMillis(levelId, record.getFastestDurationMillis());
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.setLevelRecord", startNanos);
+        }
+    }
+
+    private static int changeCounter(String levelId, int counter, boolean increment) {
+        synchronized (sLocks.forId(levelId)) {
+            LevelRecord record = isPackedLayout() ? getLevelRecord(levelId) : null;
+
+            int value = record != null ? getCounter(record, counter) : getCounter(levelId, counter);
+            if (increment) {
+                if (value < 0) { /* can't be negative */
+                    value = 0;
+                }
+                value++;
+            } else {
+                if (value <= 0) { /* can't be negative or zero */
+                    return 0;
+                }
+                value--;
+            }
+
+            if (record != null) {
+                setCounter(record, counter, value);
+                setLevelRecord(levelId, record);
+            } else {
+                setCounter(levelId, counter, value);
+            }
+
+            return value;
+        }
+    }
+
+    private static int getCounter(LevelRecord record, int counter) {
+        switch (counter) {
+            case COUNTER_TIMES_STARTED:
+                return record.getTimesStarted();
+            case COUNTER_TIMES_PLAYED:
+                return record.getTimesPlayed();
+            default:
+                return record.getTimesCompleted();
+        }
+    }
+
+    private static void setCounter(LevelRecord record, int counter, int value) {
+        switch (counter) {
+            case COUNTER_TIMES_STARTED:
+                record.setTimesStarted(value);
+                break;
+            case COUNTER_TIMES_PLAYED:
+                record.setTimesPlayed(value);
+                break;
+            default:
+                record.setTimesCompleted(value);
+        }
+    }
+
+    private static int getCounter(String levelId, int counter) {
+        switch (counter) {
+            case COUNTER_TIMES_STARTED:
+                return getTimesStarted(levelId);
+            case COUNTER_TIMES_PLAYED:
+                return getTimesPlayed(levelId);
+            default:
+                return getTimesCompleted(levelId);
+        }
+    }
+
+    private static void setCounter(String levelId, int counter, int value) {
+        switch (counter) {
+            case COUNTER_TIMES_STARTED:
+                setTimesStarted(levelId, value);
+                break;
+            case COUNTER_TIMES_PLAYED:
+                setTimesPlayed(levelId, value);
+                break;
+            default:
+                setTimesCompleted(levelId, value);
+        }
+    }
+
+    private static boolean migrateField(LevelRecord record, String postfix, String val) {
+        if (TextUtils.isEmpty(val)) {
+            return false;
+        }
+
+        try {
+            if (postfix.equals("started")) {
+                record.setTimesStarted(Integer.parseInt(val));
+            } else if (postfix.equals("played")) {
+                record.setTimesPlayed(Integer.parseInt(val));
+            } else if (postfix.equals("timesCompleted")) {
+                record.setTimesCompleted(Integer.parseInt(val));
+            } else if (postfix.equals("last")) {
+                record.setLastDurationMillis(Long.parseLong(val));
+            } else if (postfix.equals("slowest")) {
+                record.setSlowestDurationMillis(Long.parseLong(val));
+            } else if (postfix.equals("fastest")) {
+                record.setFastestDurationMillis(Long.parseLong(val));
+            } else {
+                return false;
+            }
+        } catch (NumberFormatException e) {
+            SoomlaUtils.LogError(TAG, "Skipping malformed level value for " + postfix + ": " + val);
+            return false;
+        }
+
+        return true;
+    }
+
 
     /**
      * Level Duration *
      */
 
     public static void setLastDurationMillis(String levelId, long duration) {
-        String key = keyLastDuration(levelId);
-        String val = String.valueOf(duration);
-        KeyValueStorage.setValue(key, val);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (isPackedLayout()) {
+                synchronized (sLocks.forId(levelId)) {
+                    LevelRecord record = getLevelRecord(levelId);
+                    record.setLastDurationMillis(duration);
+                    setLevelRecord(levelId, record);
+                }
+                return;
+            }
+
+            String key = keyLastDuration(levelId);
+            String val = String.valueOf(duration);
+            LUKeyValueStorage.setValue(key, val);
+            LevelUpChangeLog.recordChange(LUJSONConsts.LU_LEVELS, levelId);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.setLastDurationMillis", startNanos);
+        }
     }
 
     public static long getLastDurationMillis(String levelId) {
-        String key = keyLastDuration(levelId);
-        String val = KeyValueStorage.getValue(key);
-        return TextUtils.isEmpty(val) ? 0 : Long.parseLong(val);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (isPackedLayout()) {
+                return getLevelRecord(levelId).getLastDurationMillis();
+            }
+
+            String key = keyLastDuration(levelId);
+            String val = LUKeyValueStorage.getValue(key);
+            return TextUtils.isEmpty(val) ? 0 : Long.parseLong(val);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.getLastDurationMillis", startNanos);
+        }
     }
 
     public static void setSlowestDurationMillis(String levelId, long duration) {
-        String key = keySlowestDuration(levelId);
-        String val = String.valueOf(duration);
-        KeyValueStorage.setValue(key, val);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (isPackedLayout()) {
+                synchronized (sLocks.forId(levelId)) {
+                    LevelRecord record = getLevelRecord(levelId);
+                    record.setSlowestDurationMillis(duration);
+                    setLevelRecord(levelId, record);
+                }
+                return;
+            }
+
+            String key = keySlowestDuration(levelId);
+            String val = String.valueOf(duration);
+            LUKeyValueStorage.setValue(key, val);
+            LevelUpChangeLog.recordChange(LUJSONConsts.LU_LEVELS, levelId);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.setSlowestDurationMillis", startNanos);
+        }
     }
 
     public static long getSlowestDurationMillis(String levelId) {
-        String key = keySlowestDuration(levelId);
-        String val = KeyValueStorage.getValue(key);
-        return TextUtils.isEmpty(val) ? 0 : Long.parseLong(val);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (isPackedLayout()) {
+                return getLevelRecord(levelId).getSlowestDurationMillis();
+            }
+
+            String key = keySlowestDuration(levelId);
+            String val = LUKeyValueStorage.getValue(key);
+            return TextUtils.isEmpty(val) ? 0 : Long.parseLong(val);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.getSlowestDurationMillis", startNanos);
+        }
     }
 
     public static void setFastestDurationMillis(String levelId, long duration) {
-        String key = keyFastestDuration(levelId);
-        String val = String.valueOf(duration);
-        KeyValueStorage.setValue(key, val);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (isPackedLayout()) {
+                synchronized (sLocks.forId(levelId)) {
+                    LevelRecord record = getLevelRecord(levelId);
+                    record.setFastestDurationMillis(duration);
+                    setLevelRecord(levelId, record);
+                }
+                return;
+            }
+
+            String key = keyFastestDuration(levelId);
+            String val = String.valueOf(duration);
+            LUKeyValueStorage.setValue(key, val);
+            LevelUpChangeLog.recordChange(LUJSONConsts.LU_LEVELS, levelId);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.setFastestDurationMillis", startNanos);
+        }
     }
 
     public static long getFastestDurationMillis(String levelId) {
-        String key = keyFastestDuration(levelId);
-        String val = KeyValueStorage.getValue(key);
-        return TextUtils.isEmpty(val) ? 0 : Long.parseLong(val);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (isPackedLayout()) {
+                return getLevelRecord(levelId).getFastestDurationMillis();
+            }
+
+            String key = keyFastestDuration(levelId);
+            String val = LUKeyValueStorage.getValue(key);
+            return TextUtils.isEmpty(val) ? 0 : Long.parseLong(val);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.getFastestDurationMillis", startNanos);
+        }
     }
 
 
@@ -108,40 +450,62 @@ public class LevelStorage {
      */
 
     public static int incTimesStarted(String levelId) {
-        int started = getTimesStarted(levelId);
-        if (started < 0) { /* can't be negative */
-            started = 0;
-        }
-
-        setTimesStarted(levelId, started + 1);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            int started = changeCounter(levelId, COUNTER_TIMES_STARTED, true);
 
-        // Notify level has started
-        BusProvider.getInstance().post(new LevelStartedEvent(levelId));
+            // Notify level has started
+            LevelUpEventDispatcher.post(new LevelStartedEvent(levelId));
 
-        return started + 1;
+            return started;
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.incTimesStarted", startNanos);
+        }
     }
 
     public static int decTimesStarted(String levelId) {
-        int started = getTimesStarted(levelId);
-        if (started <= 0) { /* can't be negative or zero */
-            return 0;
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            return changeCounter(levelId, COUNTER_TIMES_STARTED, false);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.decTimesStarted", startNanos);
         }
-
-        setTimesStarted(levelId, started - 1);
-
-        return started - 1;
     }
 
     public static void setTimesStarted(String levelId, int started) {
-        String startedStr = "" + started;
-        String key = keyTimesStarted(levelId);
-        KeyValueStorage.setValue(key, startedStr);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (isPackedLayout()) {
+                synchronized (sLocks.forId(levelId)) {
+                    LevelRecord record = getLevelRecord(levelId);
+                    record.setTimesStarted(started);
+                    setLevelRecord(levelId, record);
+                }
+                return;
+            }
+
+            String startedStr = "" + started;
+            String key = keyTimesStarted(levelId);
+            LUKeyValueStorage.setValue(key, startedStr);
+            LevelUpChangeLog.recordChange(LUJSONConsts.LU_LEVELS, levelId);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.setTimesStarted", startNanos);
+        }
     }
 
     public static int getTimesStarted(String levelId) {
-        String key = keyTimesStarted(levelId);
-        String val = KeyValueStorage.getValue(key);
-        return TextUtils.isEmpty(val) ? 0 : Integer.parseInt(val);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (isPackedLayout()) {
+                return getLevelRecord(levelId).getTimesStarted();
+            }
+
+            String key = keyTimesStarted(levelId);
+            String val = LUKeyValueStorage.getValue(key);
+            return TextUtils.isEmpty(val) ? 0 : Integer.parseInt(val);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.getTimesStarted", startNanos);
+        }
     }
 
 
@@ -150,80 +514,162 @@ public class LevelStorage {
      */
 
     public static int incTimesPlayed(String levelId) {
-        int played = getTimesPlayed(levelId);
-        if (played < 0) { /* can't be negative */
-            played = 0;
-        }
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            int played = changeCounter(levelId, COUNTER_TIMES_PLAYED, true);
 
-        setTimesPlayed(levelId, played + 1);
+            // Notify level has ended
+            LevelUpEventDispatcher.post(new LevelEndedEvent(levelId));
 
-        // Notify level has ended
-        BusProvider.getInstance().post(new LevelEndedEvent(levelId));
-
-        return played + 1;
+            return played;
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.incTimesPlayed", startNanos);
+        }
     }
 
     public static int decTimesPlayed(String levelId) {
-        int played = getTimesPlayed(levelId);
-        if (played <= 0) { /* can't be negative or zero */
-            return 0;
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            return changeCounter(levelId, COUNTER_TIMES_PLAYED, false);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.decTimesPlayed", startNanos);
         }
-
-        setTimesPlayed(levelId, played - 1);
-
-        return played - 1;
     }
 
     public static void setTimesPlayed(String levelId, int played) {
-        String playedStr = "" + played;
-        String key = keyTimesPlayed(levelId);
-        KeyValueStorage.setValue(key, playedStr);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (isPackedLayout()) {
+                synchronized (sLocks.forId(levelId)) {
+                    LevelRecord record = getLevelRecord(levelId);
+                    record.setTimesPlayed(played);
+                    setLevelRecord(levelId, record);
+                }
+                return;
+            }
+
+            String playedStr = "" + played;
+            String key = keyTimesPlayed(levelId);
+            LUKeyValueStorage.setValue(key, playedStr);
+            LevelUpChangeLog.recordChange(LUJSONConsts.LU_LEVELS, levelId);
+            ProgressTracker.onLevelChanged(levelId);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.setTimesPlayed", startNanos);
+        }
     }
 
     public static int getTimesPlayed(String levelId) {
-        String key = keyTimesPlayed(levelId);
-        String val = KeyValueStorage.getValue(key);
-        return TextUtils.isEmpty(val) ? 0 : Integer.parseInt(val);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (isPackedLayout()) {
+                return getLevelRecord(levelId).getTimesPlayed();
+            }
+
+            String key = keyTimesPlayed(levelId);
+            String val = LUKeyValueStorage.getValue(key);
+            return TextUtils.isEmpty(val) ? 0 : Integer.parseInt(val);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.getTimesPlayed", startNanos);
+        }
     }
 
     /**
      * Level Times Completed *
      */
     public static int incTimesCompleted(String levelId) {
-        int completed = getTimesCompleted(levelId);
-
-        if (completed < 0) { /* can't be negative */
-            completed = 0;
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            return changeCounter(levelId, COUNTER_TIMES_COMPLETED, true);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.incTimesCompleted", startNanos);
         }
-
-        setTimesCompleted(levelId, completed + 1);
-
-        return completed + 1;
     }
 
     public static int decTimesCompleted(String levelId) {
-        int completed = getTimesCompleted(levelId);
-
-        if (completed <= 0) { /* can't be negative or zero */
-            return 0;
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            return changeCounter(levelId, COUNTER_TIMES_COMPLETED, false);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.decTimesCompleted", startNanos);
         }
-
-        setTimesCompleted(levelId, completed - 1);
-
-        return completed - 1;
     }
 
     public static void setTimesCompleted(String levelId, int completed) {
-        String completedStr = "" + completed;
-        String key = keyTimesCompleted(levelId);
-        KeyValueStorage.setValue(key, completedStr);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (isPackedLayout()) {
+                synchronized (sLocks.forId(levelId)) {
+                    LevelRecord record = getLevelRecord(levelId);
+                    record.setTimesCompleted(completed);
+                    setLevelRecord(levelId, record);
+                }
+                return;
+            }
+
+            String completedStr = "" + completed;
+            String key = keyTimesCompleted(levelId);
+            LUKeyValueStorage.setValue(key, completedStr);
+            LevelUpChangeLog.recordChange(LUJSONConsts.LU_LEVELS, levelId);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.setTimesCompleted", startNanos);
+        }
     }
 
     public static int getTimesCompleted(String levelId) {
-        String key = keyTimesCompleted(levelId);
-        String val = KeyValueStorage.getValue(key);
-        return TextUtils.isEmpty(val) ? 0 : Integer.parseInt(val);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (isPackedLayout()) {
+                return getLevelRecord(levelId).getTimesCompleted();
+            }
+
+            String key = keyTimesCompleted(levelId);
+            String val = LUKeyValueStorage.getValue(key);
+            return TextUtils.isEmpty(val) ? 0 : Integer.parseInt(val);
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.getTimesCompleted", startNanos);
+        }
+    }
+
+    /**
+     * Retrieves the handle of the given level.  Handles are shared, so
+     * every call with the same id returns the same handle.
+     *
+     * @param levelId the id of the level
+     * @return the level's handle
+     */
+    public static LevelHandle getHandle(String levelId) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            LevelHandle handle = sHandles.get(levelId);
+            if (handle == null) {
+                LevelHandle created = new LevelHandle(levelId);
+                handle = sHandles.putIfAbsent(levelId, created);
+                if (handle == null) {
+                    handle = created;
+                }
+            }
+            return handle;
+        } finally {
+            LevelUpMetrics.exit("LevelStorage.getHandle", startNanos);
+        }
     }
 
     public static final String DB_LEVEL_KEY_PREFIX = LevelUp.DB_KEY_PREFIX + "levels.";
+
+    // kept outside of the levels prefix so clearing the state keeps the layout
+    private static final String DB_LEVEL_LAYOUT_KEY = LevelUp.DB_KEY_PREFIX + "layout.levels";
+    private static final String LAYOUT_PACKED = "packed";
+    private static final String TAG = "SOOMLA LevelStorage";
+
+    // guards the counters' read-modify-write, and the packed record's
+    private static final StripedLock sLocks = new StripedLock(32);
+
+    private static final int COUNTER_TIMES_STARTED = 0;
+    private static final int COUNTER_TIMES_PLAYED = 1;
+    private static final int COUNTER_TIMES_COMPLETED = 2;
+
+    private static volatile Boolean sPackedLayout;
+
+    private static final ConcurrentHashMap<String, LevelHandle> sHandles =
+            new ConcurrentHashMap<String, LevelHandle>();
 }
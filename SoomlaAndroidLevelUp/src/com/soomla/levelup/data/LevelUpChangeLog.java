@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+import android.text.TextUtils;
+
+import com.soomla.levelup.LevelUp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A monotonic log of the entities changed through the storage classes.
+ * Every change gets the next version number; for each entity only its
+ * latest change is kept, so the log never holds more entries than there are
+ * entities.
+ * <p/>
+ * Changes made inside a batch are only recorded when the batch is
+ * committed, so an aborted batch leaves no trace in the log.
+ * <p/>
+ * The log takes no lock to record or read changes.  A version is only
+ * published through <code>getVersion()</code> once every change up to it was
+ * recorded, so a sync never skips a change that was still being recorded.
+ * <p/>
+ * Versions keep growing across app sessions.  Changes made before the log's
+ * floor version (in earlier sessions, or before the state was reset) are not
+ * tracked, so asking for them means the whole state has to be synced.
+ */
+public class LevelUpChangeLog {
+
+    /**
+     * A changed entity.
+     */
+    public static class Change {
+
+        Change(String section, String itemId) {
+            mSection = section;
+            mItemId = itemId;
+        }
+
+        /**
+         * @return the state section of the entity (e.g. <code>LUJSONConsts.LU_GATES</code>)
+         */
+        public String getSection() {
+            return mSection;
+        }
+
+        public String getItemId() {
+            return mItemId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Change)) {
+                return false;
+            }
+            Change other = (Change) o;
+            return mSection.equals(other.mSection) && mItemId.equals(other.mItemId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mSection.hashCode() + mItemId.hashCode();
+        }
+
+        private final String mSection;
+        private final String mItemId;
+    }
+
+    /**
+     * Records a change to the given entity.
+     *
+     * @param section the state section of the entity
+     * @param itemId the id of the changed entity
+     */
+    public static void recordChange(String section, String itemId) {
+        if (itemId == null || LUKeyValueStorage.deferChange(section, itemId)) {
+            return;
+        }
+
+        ensureLoaded();
+
+        Change change = new Change(section, itemId);
+        long version = nextVersion();
+        sChanges.put(version, change);
+
+        // keep only the entity's latest version, a concurrent later change wins
+        while (true) {
+            Long previous = sVersions.get(change);
+            if (previous == null) {
+                if (sVersions.putIfAbsent(change, version) == null) {
+                    break;
+                }
+            } else if (previous > version) {
+                sChanges.remove(version, change);
+                break;
+            } else if (sVersions.replace(change, previous, version)) {
+                sChanges.remove(previous, change);
+                break;
+            }
+        }
+
+        publish(version);
+    }
+
+    /**
+     * @return the version of the latest recorded change.  Every change up to
+     * this version is already visible to <code>getChangesSince()</code>.
+     */
+    public static long getVersion() {
+        ensureLoaded();
+        return sPublishedVersion.get();
+    }
+
+    /**
+     * Retrieves the entities changed after the given version.
+     *
+     * @param version a version returned earlier from <code>getVersion()</code>
+     * @return the changed entities, oldest change first, or <code>null</code> if
+     * the log doesn't cover all changes since <code>version</code> and the
+     * whole state has to be synced instead
+     */
+    public static List<Change> getChangesSince(long version) {
+        ensureLoaded();
+        long published = sPublishedVersion.get();
+        if (version < sFloorVersion || version > published) {
+            return null;
+        }
+
+        List<Change> changes = new ArrayList<Change>();
+        if (version == published) {
+            return changes;
+        }
+        for (Map.Entry<Long, Change> entry : sChanges.subMap(version + 1, true, published, true).entrySet()) {
+            // skip entries a later change of the same entity is about to remove
+            if (entry.getKey().equals(sVersions.get(entry.getValue()))) {
+                changes.add(entry.getValue());
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Forgets all recorded changes.  Call it after the whole state was
+     * replaced, so older versions can only be synced in full.
+     */
+    public static void reset() {
+        ensureLoaded();
+        long version = nextVersion();
+        sVersions.clear();
+        sChanges.clear();
+        sFloorVersion = version;
+        publish(version);
+    }
+
+    // forgets the log, so the version is loaded again from the storage
+    static void unload() {
+        synchronized (sLoadLock) {
+            sLoaded = false;
+            sVersions.clear();
+            sChanges.clear();
+        }
+    }
+
+    private static long nextVersion() {
+        long version = sVersion.incrementAndGet();
+
+        // only the thread crossing into a new block persists the next reservation
+        if (version >= sReservedVersion) {
+            synchronized (sReserveLock) {
+                if (version >= sReservedVersion) {
+                    long reserved = version + RESERVED_BLOCK;
+                    LUKeyValueStorage.backend().setValue(DB_VERSION_KEY, String.valueOf(reserved));
+                    sReservedVersion = reserved;
+                }
+            }
+        }
+        return version;
+    }
+
+    // marks the version as recorded and moves the published version past
+    // every version recorded without gaps
+    private static void publish(long version) {
+        // a slot is reused PUBLISH_WINDOW versions later, wait until it was consumed
+        while (version - sPublishedVersion.get() > PUBLISH_WINDOW) {
+            Thread.yield();
+        }
+        sRecorded.set((int) (version % PUBLISH_WINDOW), version);
+
+        // whichever thread records the version right after the published one moves it on
+        long published = sPublishedVersion.get();
+        while (sRecorded.get((int) ((published + 1) % PUBLISH_WINDOW)) == published + 1) {
+            sPublishedVersion.compareAndSet(published, published + 1);
+            published = sPublishedVersion.get();
+        }
+    }
+
+    private static void ensureLoaded() {
+        if (sLoaded) {
+            return;
+        }
+
+        synchronized (sLoadLock) {
+            if (sLoaded) {
+                return;
+            }
+
+            // start past every version a previous session could have handed out
+            String val = LUKeyValueStorage.backend().getValue(DB_VERSION_KEY);
+            long reserved = TextUtils.isEmpty(val) ? 0 : Long.parseLong(val);
+            sVersion.set(reserved);
+            sPublishedVersion.set(reserved);
+            sFloorVersion = reserved;
+            sReservedVersion = reserved;
+            sLoaded = true;
+        }
+    }
+
+    // kept outside of the state prefixes so clearing the state keeps the version
+    private static final String DB_VERSION_KEY = LevelUp.DB_KEY_PREFIX + "changelog.version";
+    private static final long RESERVED_BLOCK = 1024;
+    private static final int PUBLISH_WINDOW = 1024;
+
+    private static final AtomicLong sVersion = new AtomicLong();
+    private static final AtomicLong sPublishedVersion = new AtomicLong();
+    private static final AtomicLongArray sRecorded = new AtomicLongArray(PUBLISH_WINDOW);
+    private static volatile long sFloorVersion;
+    private static volatile long sReservedVersion;
+    private static volatile boolean sLoaded;
+    private static final Object sLoadLock = new Object();
+    private static final Object sReserveLock = new Object();
+    private static final ConcurrentHashMap<Change, Long> sVersions = new ConcurrentHashMap<Change, Long>();
+    private static final ConcurrentSkipListMap<Long, Change> sChanges = new ConcurrentSkipListMap<Long, Change>();
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+/**
+ * A handle on a single mission's state.  Get one with
+ * <code>MissionStorage.getHandle()</code> and keep it: its key is built once
+ * and its getters are served from cache until the mission's completion count
+ * changes.
+ * <p/>
+ * Handles always agree with the static <code>MissionStorage</code> methods,
+ * which the setters go through (so events are posted as usual).
+ */
+public class MissionHandle {
+
+    MissionHandle(String missionId) {
+        mMissionId = missionId;
+        mTimesCompleted = new CachedKey(MissionStorage.keyMissionTimesCompleted(missionId));
+    }
+
+    public String getMissionId() {
+        return mMissionId;
+    }
+
+    public boolean isCompleted() {
+        return getTimesCompleted() > 0;
+    }
+
+    public void setCompleted(boolean completed) {
+        MissionStorage.setCompleted(mMissionId, completed);
+    }
+
+    public void setCompleted(boolean completed, boolean notify) {
+        MissionStorage.setCompleted(mMissionId, completed, notify);
+    }
+
+    public int getTimesCompleted() {
+        return (int) mTimesCompleted.getLong(0);
+    }
+
+    public void setTimesCompleted(int timesCompleted) {
+        MissionStorage.setTimesCompleted(mMissionId, timesCompleted);
+    }
+
+    private final String mMissionId;
+    private final CachedKey mTimesCompleted;
+}
@@ -18,11 +18,13 @@ package com.soomla.levelup.data;
 
 import android.text.TextUtils;
 
-import com.soomla.BusProvider;
-import com.soomla.data.KeyValueStorage;
 import com.soomla.levelup.LevelUp;
+import com.soomla.levelup.events.LevelUpEventDispatcher;
 import com.soomla.levelup.events.MissionCompletedEvent;
 import com.soomla.levelup.events.MissionCompletionRevokedEvent;
+import com.soomla.levelup.metrics.LevelUpMetrics;
+
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A utility class for persisting and querying the state of missions.
@@ -38,7 +40,7 @@ public class MissionStorage {
         return DB_MISSION_KEY_PREFIX + missionId + "." + postfix;
     }
 
-    private static String keyMissionTimesCompleted(String missionId) {
+    static String keyMissionTimesCompleted(String missionId) {
         return keyMissions(missionId, "timesCompleted");
     }
 
@@ -53,20 +55,23 @@ public class MissionStorage {
     }
 
     public static void setCompleted(String missionId, boolean completed, boolean notify) {
-        int total = getTimesCompleted(missionId) + (completed ? 1 : -1);
-        if (total < 0) {
-            total = 0;
-        }
-
-        String key = keyMissionTimesCompleted(missionId);
-        KeyValueStorage.setValue(key, String.valueOf(total));
-
-        if (notify) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
             if (completed) {
-                BusProvider.getInstance().post(new MissionCompletedEvent(missionId));
+                incTimesCompleted(missionId);
             } else {
-                BusProvider.getInstance().post(new MissionCompletionRevokedEvent(missionId));
+                decTimesCompleted(missionId);
             }
+
+            if (notify) {
+                if (completed) {
+                    LevelUpEventDispatcher.post(new MissionCompletedEvent(missionId));
+                } else {
+                    LevelUpEventDispatcher.post(new MissionCompletionRevokedEvent(missionId));
+                }
+            }
+        } finally {
+            LevelUpMetrics.exit("MissionStorage.setCompleted", startNanos);
         }
     }
 
@@ -78,7 +83,12 @@ public class MissionStorage {
      * <code>false</code> otherwise
      */
     public static boolean isCompleted(String missionId) {
-        return getTimesCompleted(missionId) > 0;
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            return getTimesCompleted(missionId) > 0;
+        } finally {
+            LevelUpMetrics.exit("MissionStorage.isCompleted", startNanos);
+        }
     }
 
     /**
@@ -88,18 +98,105 @@ public class MissionStorage {
      * @return the number of times the mission has been completed, 0 by default.
      */
     public static int getTimesCompleted(String missionId) {
-        String key = keyMissionTimesCompleted(missionId);
-        String val = KeyValueStorage.getValue(key);
-        if (TextUtils.isEmpty(val)) {
-            return 0;
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            String key = keyMissionTimesCompleted(missionId);
+            String val = LUKeyValueStorage.getValue(key);
+            if (TextUtils.isEmpty(val)) {
+                return 0;
+            }
+            return Integer.parseInt(val);
+        } finally {
+            LevelUpMetrics.exit("MissionStorage.getTimesCompleted", startNanos);
         }
-        return Integer.parseInt(val);
     }
 
     public static void setTimesCompleted(String missionId, int timesCompleted) {
-        String key = keyMissionTimesCompleted(missionId);
-        KeyValueStorage.setValue(key, String.valueOf(timesCompleted));
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            synchronized (sLocks.forId(missionId)) {
+                String key = keyMissionTimesCompleted(missionId);
+                LUKeyValueStorage.setValue(key, String.valueOf(timesCompleted));
+                LevelUpChangeLog.recordChange(LUJSONConsts.LU_MISSIONS, missionId);
+            }
+        } finally {
+            LevelUpMetrics.exit("MissionStorage.setTimesCompleted", startNanos);
+        }
+    }
+
+    /**
+     * Atomically increments the number of times the given mission has been
+     * completed, without posting any event.
+     *
+     * @param missionId the id of the mission
+     * @return the new number of times the mission has been completed
+     */
+    public static int incTimesCompleted(String missionId) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            return changeTimesCompleted(missionId, 1);
+        } finally {
+            LevelUpMetrics.exit("MissionStorage.incTimesCompleted", startNanos);
+        }
+    }
+
+    /**
+     * Atomically decrements the number of times the given mission has been
+     * completed, without going below zero or posting any event.
+     *
+     * @param missionId the id of the mission
+     * @return the new number of times the mission has been completed
+     */
+    public static int decTimesCompleted(String missionId) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            return changeTimesCompleted(missionId, -1);
+        } finally {
+            LevelUpMetrics.exit("MissionStorage.decTimesCompleted", startNanos);
+        }
+    }
+
+    private static int changeTimesCompleted(String missionId, int delta) {
+        synchronized (sLocks.forId(missionId)) {
+            int total = getTimesCompleted(missionId) + delta;
+            if (total < 0) {
+                total = 0;
+            }
+
+            setTimesCompleted(missionId, total);
+            return total;
+        }
+    }
+
+    /**
+     * Retrieves the handle of the given mission.  Handles are shared, so
+     * every call with the same id returns the same handle.
+     *
+     * @param missionId the id of the mission
+     * @return the mission's handle
+     */
+    public static MissionHandle getHandle(String missionId) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            MissionHandle handle = sHandles.get(missionId);
+            if (handle == null) {
+                MissionHandle created = new MissionHandle(missionId);
+                handle = sHandles.putIfAbsent(missionId, created);
+                if (handle == null) {
+                    handle = created;
+                }
+            }
+            return handle;
+        } finally {
+            LevelUpMetrics.exit("MissionStorage.getHandle", startNanos);
+        }
     }
 
     public static final String DB_MISSION_KEY_PREFIX = LevelUp.DB_KEY_PREFIX + "missions.";
+
+    // guards the completion count's read-modify-write
+    private static final StripedLock sLocks = new StripedLock(32);
+
+    private static final ConcurrentHashMap<String, MissionHandle> sHandles =
+            new ConcurrentHashMap<String, MissionHandle>();
 }
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+import com.soomla.levelup.EntityKind;
+import com.soomla.levelup.LevelUp;
+import com.soomla.levelup.LevelUpModel;
+import com.soomla.levelup.LevelUpModelIndex;
+import com.soomla.levelup.ModelClass;
+
+/**
+ * Keeps the progress aggregates of every world of the model up to date as
+ * worlds are completed, levels played and records set.
+ * <p/>
+ * The aggregates are built from the whole state the first time they're
+ * asked for.  From then on the storage classes report every changed entity;
+ * its value is read again and only the difference is added to the worlds
+ * above it, following the parent pointers of the model index.  Changes that
+ * may touch any key (batch commits, resets, layout switches) and model
+ * changes make the aggregates rebuild on the next read.
+ * <p/>
+ * Inside a batch the calling thread sees its uncommitted values, so it gets
+ * aggregates of its own: built on its first read in the batch, kept up to
+ * date with the batch's changes and dropped with the batch.
+ */
+class ProgressTracker {
+
+    static WorldProgress getProgress(String worldId) {
+        ProgressTracker tracker = current();
+        return tracker != null ? tracker.progressOf(worldId) : null;
+    }
+
+    static void onWorldChanged(String worldId) {
+        ProgressTracker tracker = updatedTracker();
+        if (tracker != null) {
+            tracker.updateWorld(worldId);
+        }
+    }
+
+    static void onLevelChanged(String levelId) {
+        ProgressTracker tracker = updatedTracker();
+        if (tracker != null) {
+            tracker.updateLevel(levelId);
+        }
+    }
+
+    static void onScoreChanged(String scoreId) {
+        ProgressTracker tracker = updatedTracker();
+        if (tracker != null) {
+            tracker.updateScore(scoreId);
+        }
+    }
+
+    // the tracker that sees the calling thread's changes, if it was built
+    private static ProgressTracker updatedTracker() {
+        return LUKeyValueStorage.isInBatch() ? LUKeyValueStorage.getBatchProgress() : sTracker;
+    }
+
+    private static ProgressTracker current() {
+        LevelUpModel model = LevelUp.getModel();
+        if (model == null) {
+            sTracker = null;
+            return null;
+        }
+
+        if (LUKeyValueStorage.isInBatch()) {
+            ProgressTracker tracker = LUKeyValueStorage.getBatchProgress();
+            if (tracker == null || !tracker.isCurrent(model)) {
+                tracker = new ProgressTracker(model);
+                tracker.build();
+                LUKeyValueStorage.setBatchProgress(tracker);
+            }
+            return tracker;
+        }
+
+        ProgressTracker tracker = sTracker;
+        if (tracker != null && tracker.isCurrent(model)) {
+            return tracker;
+        }
+
+        // published before it's built, but locked until it is, so reads and
+        // changes made while building wait for the build
+        ProgressTracker created = new ProgressTracker(model);
+        synchronized (created) {
+            synchronized (ProgressTracker.class) {
+                tracker = sTracker;
+                if (tracker == null || !tracker.isCurrent(model)) {
+                    tracker = created;
+                    sTracker = tracker;
+                }
+            }
+
+            if (tracker == created) {
+                created.build();
+            }
+        }
+        return tracker;
+    }
+
+    private ProgressTracker(LevelUpModel model) {
+        mModel = model;
+        // taken before reading, so a concurrent reset makes the tracker stale
+        mGlobalWriteVersion = LUKeyValueStorage.getGlobalWriteVersion();
+
+        LevelUpModelIndex index = model.getIndex();
+        mWorlds = index.getWorlds();
+        mScores = index.getScores();
+
+        int worlds = mWorlds.size();
+        mTotalLevels = new int[worlds];
+        mCompletedLevels = new int[worlds];
+        mInnerWorlds = new int[worlds];
+        mCompletedInnerWorlds = new int[worlds];
+        mTimesPlayed = new long[worlds];
+        mRecordSums = new double[worlds];
+        mCompleted = new boolean[worlds];
+        mPlayed = new int[worlds];
+        mRecords = new double[mScores.size()];
+    }
+
+    private boolean isCurrent(LevelUpModel model) {
+        return mModel == model && mGlobalWriteVersion == LUKeyValueStorage.getGlobalWriteVersion();
+    }
+
+    private synchronized void build() {
+        int worlds = mWorlds.size();
+        LUKeyValueStorage.beginPrefetch();
+        try {
+            for (int world = 0; world < worlds; world++) {
+                int parent = parentWorld(world);
+                if (parent >= 0) {
+                    mInnerWorlds[parent]++;
+                }
+                if (mWorlds.getModelClass(world) == ModelClass.LEVEL) {
+                    for (int ancestor = world; ancestor >= 0; ancestor = parentWorld(ancestor)) {
+                        mTotalLevels[ancestor]++;
+                    }
+                }
+
+                applyWorld(world, WorldStorage.isCompleted(mWorlds.getId(world)));
+                if (mWorlds.getModelClass(world) == ModelClass.LEVEL) {
+                    applyLevel(world, LevelStorage.getTimesPlayed(mWorlds.getId(world)));
+                }
+            }
+
+            for (int score = 0; score < mScores.size(); score++) {
+                applyScore(score, ScoreStorage.getRecordScore(mScores.getId(score)));
+            }
+        } finally {
+            LUKeyValueStorage.endPrefetch();
+        }
+    }
+
+    private synchronized WorldProgress progressOf(String worldId) {
+        int world = mWorlds.ordinalOf(worldId);
+        if (world < 0) {
+            return null;
+        }
+
+        return new WorldProgress(worldId, mTotalLevels[world], mCompletedLevels[world], mInnerWorlds[world],
+                mCompletedInnerWorlds[world], mTimesPlayed[world], mRecordSums[world]);
+    }
+
+    private synchronized void updateWorld(String worldId) {
+        int world = mWorlds.ordinalOf(worldId);
+        if (world >= 0) {
+            applyWorld(world, WorldStorage.isCompleted(worldId));
+        }
+    }
+
+    private synchronized void updateLevel(String levelId) {
+        int world = mWorlds.ordinalOf(levelId);
+        if (world >= 0 && mWorlds.getModelClass(world) == ModelClass.LEVEL) {
+            applyLevel(world, LevelStorage.getTimesPlayed(levelId));
+        }
+    }
+
+    private synchronized void updateScore(String scoreId) {
+        int score = mScores.ordinalOf(scoreId);
+        if (score >= 0) {
+            applyScore(score, ScoreStorage.getRecordScore(scoreId));
+        }
+    }
+
+    private void applyWorld(int world, boolean completed) {
+        if (mCompleted[world] == completed) {
+            return;
+        }
+        mCompleted[world] = completed;
+
+        int delta = completed ? 1 : -1;
+        int parent = parentWorld(world);
+        if (parent >= 0) {
+            mCompletedInnerWorlds[parent] += delta;
+        }
+        if (mWorlds.getModelClass(world) == ModelClass.LEVEL) {
+            for (int ancestor = world; ancestor >= 0; ancestor = parentWorld(ancestor)) {
+                mCompletedLevels[ancestor] += delta;
+            }
+        }
+    }
+
+    private void applyLevel(int world, int played) {
+        int delta = played - mPlayed[world];
+        if (delta == 0) {
+            return;
+        }
+        mPlayed[world] = played;
+
+        for (int ancestor = world; ancestor >= 0; ancestor = parentWorld(ancestor)) {
+            mTimesPlayed[ancestor] += delta;
+        }
+    }
+
+    private void applyScore(int score, double record) {
+        // an unset record doesn't count
+        double value = record == -1 ? 0 : record;
+        double delta = value - mRecords[score];
+        if (delta == 0) {
+            return;
+        }
+        mRecords[score] = value;
+
+        if (mScores.getParentKind(score) != EntityKind.WORLD) {
+            return;
+        }
+        for (int ancestor = mScores.getParent(score); ancestor >= 0; ancestor = parentWorld(ancestor)) {
+            mRecordSums[ancestor] += delta;
+        }
+    }
+
+    private int parentWorld(int world) {
+        return mWorlds.getParentKind(world) == EntityKind.WORLD ? mWorlds.getParent(world) : -1;
+    }
+
+    private static volatile ProgressTracker sTracker;
+
+    private final LevelUpModel mModel;
+    private final long mGlobalWriteVersion;
+    private final LevelUpModelIndex.EntityTable mWorlds;
+    private final LevelUpModelIndex.EntityTable mScores;
+
+    // the aggregates, by world ordinal
+    private final int[] mTotalLevels;
+    private final int[] mCompletedLevels;
+    private final int[] mInnerWorlds;
+    private final int[] mCompletedInnerWorlds;
+    private final long[] mTimesPlayed;
+    private final double[] mRecordSums;
+
+    // the last values read of every entity
+    private final boolean[] mCompleted;
+    private final int[] mPlayed;
+    private final double[] mRecords;
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded, least-recently-used cache of stored values, including
+ * absent ones.  Every entry remembers the write version of its key's stripe
+ * at the time it was read; once a write moves that version on, the entry is
+ * stale and the next read goes to the storage again.  Writes therefore
+ * never need to touch the cache.
+ */
+class ReadCache {
+
+    static final String NOT_CACHED = new String("");
+
+    ReadCache(final int maxEntries) {
+        mMaxEntries = maxEntries;
+        mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxEntries) {
+                    mEvictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param key the key to look up
+     * @param version the current write version of the key's stripe
+     * @return the cached value (<code>null</code> if the key is known to be
+     * absent), or <code>NOT_CACHED</code>
+     */
+    synchronized String get(String key, long version) {
+        Entry entry = mEntries.get(key);
+        if (entry == null || entry.version != version) {
+            mMisses++;
+            return NOT_CACHED;
+        }
+
+        mHits++;
+        return entry.value;
+    }
+
+    /**
+     * @param key the key that was read
+     * @param value the value read, <code>null</code> if absent
+     * @param version the write version of the key's stripe, taken before reading
+     */
+    synchronized void put(String key, String value, long version) {
+        mEntries.put(key, new Entry(value, version));
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+    }
+
+    synchronized ReadCacheStats getStats() {
+        return new ReadCacheStats(mHits, mMisses, mEvictions, mEntries.size(), mMaxEntries);
+    }
+
+    synchronized void resetStats() {
+        mHits = 0;
+        mMisses = 0;
+        mEvictions = 0;
+    }
+
+    private static class Entry {
+
+        Entry(String value, long version) {
+            this.value = value;
+            this.version = version;
+        }
+
+        final String value;
+        final long version;
+    }
+
+    private final int mMaxEntries;
+    private final LinkedHashMap<String, Entry> mEntries;
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+}
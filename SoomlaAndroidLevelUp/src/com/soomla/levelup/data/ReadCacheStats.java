@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+/**
+ * The statistics of the LevelUp read cache at some point in time
+ * (see <code>LUKeyValueStorage.enableReadCache()</code>).
+ */
+public class ReadCacheStats {
+
+    ReadCacheStats(long hits, long misses, long evictions, int size, int maxSize) {
+        mHits = hits;
+        mMisses = misses;
+        mEvictions = evictions;
+        mSize = size;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @return the number of reads served from the cache, absent keys included
+     */
+    public long getHits() {
+        return mHits;
+    }
+
+    /**
+     * @return the number of reads that went to the storage
+     */
+    public long getMisses() {
+        return mMisses;
+    }
+
+    /**
+     * @return the number of entries dropped to make room for newer ones
+     */
+    public long getEvictions() {
+        return mEvictions;
+    }
+
+    public int getSize() {
+        return mSize;
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return the share of reads served from the cache, between 0 and 1
+     */
+    public double getHitRate() {
+        long reads = mHits + mMisses;
+        return reads > 0 ? (double) mHits / reads : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + mHits + ", misses=" + mMisses + ", evictions=" + mEvictions +
+                ", size=" + mSize + "/" + mMaxSize;
+    }
+
+    private final long mHits;
+    private final long mMisses;
+    private final long mEvictions;
+    private final int mSize;
+    private final int mMaxSize;
+}
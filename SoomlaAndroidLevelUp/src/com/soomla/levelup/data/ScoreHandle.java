@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+/**
+ * A handle on a single score's state.  Get one with
+ * <code>ScoreStorage.getHandle()</code> and keep it: its keys are built once
+ * and its getters are served from cache until the score's values change.
+ * <p/>
+ * Handles always agree with the static <code>ScoreStorage</code> methods,
+ * which the setters go through (so events are posted as usual).
+ */
+public class ScoreHandle {
+
+    ScoreHandle(String scoreId) {
+        mScoreId = scoreId;
+        mLatest = new CachedKey(ScoreStorage.keyLatestScore(scoreId));
+        mRecord = new CachedKey(ScoreStorage.keyRecordScore(scoreId));
+    }
+
+    public String getScoreId() {
+        return mScoreId;
+    }
+
+    public double getLatestScore() {
+        return mLatest.getDouble(-1);
+    }
+
+    public void setLatestScore(double latest) {
+        ScoreStorage.setLatestScore(mScoreId, latest);
+    }
+
+    public void setLatestScore(double latest, boolean notify) {
+        ScoreStorage.setLatestScore(mScoreId, latest, notify);
+    }
+
+    public double getRecordScore() {
+        return mRecord.getDouble(-1);
+    }
+
+    public void setRecordScore(double record) {
+        ScoreStorage.setRecordScore(mScoreId, record);
+    }
+
+    public void setRecordScore(double record, boolean notify) {
+        ScoreStorage.setRecordScore(mScoreId, record, notify);
+    }
+
+    private final String mScoreId;
+    private final CachedKey mLatest;
+    private final CachedKey mRecord;
+}
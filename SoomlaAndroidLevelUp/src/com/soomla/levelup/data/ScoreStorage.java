@@ -18,11 +18,16 @@ package com.soomla.levelup.data;
 
 import android.text.TextUtils;
 
-import com.soomla.BusProvider;
-import com.soomla.data.KeyValueStorage;
 import com.soomla.levelup.LevelUp;
+import com.soomla.levelup.LevelUpModel;
+import com.soomla.levelup.LevelUpModelIndex;
 import com.soomla.levelup.events.LatestScoreChangedEvent;
+import com.soomla.levelup.events.LevelUpEventDispatcher;
 import com.soomla.levelup.events.ScoreRecordChangedEvent;
+import com.soomla.levelup.events.ScoreRecordReachedEvent;
+import com.soomla.levelup.metrics.LevelUpMetrics;
+
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A utility class for persisting and querying scores and records.
@@ -37,11 +42,11 @@ public class ScoreStorage {
         return DB_SCORE_KEY_PREFIX + scoreId + "." + postfix;
     }
 
-    private static String keyLatestScore(String scoreId) {
+    static String keyLatestScore(String scoreId) {
         return keyScores(scoreId, "latest");
     }
 
-    private static String keyRecordScore(String scoreId) {
+    static String keyRecordScore(String scoreId) {
         return keyScores(scoreId, "record");
     }
 
@@ -58,12 +63,18 @@ public class ScoreStorage {
         setLatestScore(scoreId, latest, true);
     }
     public static void setLatestScore(String scoreId, double latest, boolean notify) {
-        String key = keyLatestScore(scoreId);
-        String val = String.valueOf(latest);
-        KeyValueStorage.setValue(key, val);
-
-        if (notify) {
-            BusProvider.getInstance().post(new LatestScoreChangedEvent(scoreId));
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            String key = keyLatestScore(scoreId);
+            String val = String.valueOf(latest);
+            LUKeyValueStorage.setValue(key, val);
+            LevelUpChangeLog.recordChange(LUJSONConsts.LU_SCORES, scoreId);
+
+            if (notify) {
+                LevelUpEventDispatcher.post(new LatestScoreChangedEvent(scoreId));
+            }
+        } finally {
+            LevelUpMetrics.exit("ScoreStorage.setLatestScore", startNanos);
         }
     }
 
@@ -74,9 +85,14 @@ public class ScoreStorage {
      * @return the last saved value
      */
     public static double getLatestScore(String scoreId) {
-        String key = keyLatestScore(scoreId);
-        String val = KeyValueStorage.getValue(key);
-        return TextUtils.isEmpty(val) ? -1 : Double.parseDouble(val);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            String key = keyLatestScore(scoreId);
+            String val = LUKeyValueStorage.getValue(key);
+            return TextUtils.isEmpty(val) ? -1 : Double.parseDouble(val);
+        } finally {
+            LevelUpMetrics.exit("ScoreStorage.getLatestScore", startNanos);
+        }
     }
 
 
@@ -87,18 +103,35 @@ public class ScoreStorage {
     }
 
     /**
-     * Sets a new record for the given score.
+     * Sets a new record for the given score.  When notifying, a
+     * <code>ScoreRecordReachedEvent</code> is also fired for every record
+     * gate threshold the new record crossed.
      *
      * @param scoreId the id of the score who's record to change
      * @param record the new record value
      */
     public static void setRecordScore(String scoreId, double record, boolean notify) {
-        String key = keyRecordScore(scoreId);
-        String val = String.valueOf(record);
-        KeyValueStorage.setValue(key, val);
-
-        if (notify) {
-            BusProvider.getInstance().post(new ScoreRecordChangedEvent(scoreId));
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            double oldRecord;
+
+            // concurrent updates of the score each report the record they replaced
+            synchronized (sLocks.forId(scoreId)) {
+                oldRecord = getRecordScore(scoreId);
+
+                String key = keyRecordScore(scoreId);
+                String val = String.valueOf(record);
+                LUKeyValueStorage.setValue(key, val);
+                LevelUpChangeLog.recordChange(LUJSONConsts.LU_SCORES, scoreId);
+                ProgressTracker.onScoreChanged(scoreId);
+            }
+
+            if (notify) {
+                LevelUpEventDispatcher.post(new ScoreRecordChangedEvent(scoreId, oldRecord, record));
+                postRecordsReached(scoreId, oldRecord, record);
+            }
+        } finally {
+            LevelUpMetrics.exit("ScoreStorage.setRecordScore", startNanos);
         }
     }
 
@@ -109,10 +142,61 @@ public class ScoreStorage {
      * @return the record of the given score
      */
     public static double getRecordScore(String scoreId) {
-        String key = keyRecordScore(scoreId);
-        String val = KeyValueStorage.getValue(key);
-        return TextUtils.isEmpty(val) ? -1 : Double.parseDouble(val);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            String key = keyRecordScore(scoreId);
+            String val = LUKeyValueStorage.getValue(key);
+            return TextUtils.isEmpty(val) ? -1 : Double.parseDouble(val);
+        } finally {
+            LevelUpMetrics.exit("ScoreStorage.getRecordScore", startNanos);
+        }
+    }
+
+    private static void postRecordsReached(String scoreId, double oldRecord, double newRecord) {
+        LevelUpModel model = LevelUp.getModel();
+        if (model == null) {
+            return;
+        }
+
+        LevelUpModelIndex.EntityTable gates = model.getIndex().getGates();
+        double lastDesiredRecord = Double.NaN;
+        for (int gate : model.getGateDependencies().getCrossedRecordGates(scoreId, oldRecord, newRecord)) {
+            // gates are sorted by threshold, so gates sharing one are adjacent
+            double desiredRecord = gates.getDesiredValue(gate);
+            if (Double.compare(desiredRecord, lastDesiredRecord) != 0) {
+                LevelUpEventDispatcher.post(new ScoreRecordReachedEvent(scoreId, desiredRecord));
+                lastDesiredRecord = desiredRecord;
+            }
+        }
+    }
+
+    /**
+     * Retrieves the handle of the given score.  Handles are shared, so
+     * every call with the same id returns the same handle.
+     *
+     * @param scoreId the id of the score
+     * @return the score's handle
+     */
+    public static ScoreHandle getHandle(String scoreId) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            ScoreHandle handle = sHandles.get(scoreId);
+            if (handle == null) {
+                ScoreHandle created = new ScoreHandle(scoreId);
+                handle = sHandles.putIfAbsent(scoreId, created);
+                if (handle == null) {
+                    handle = created;
+                }
+            }
+            return handle;
+        } finally {
+            LevelUpMetrics.exit("ScoreStorage.getHandle", startNanos);
+        }
     }
 
     public static final String DB_SCORE_KEY_PREFIX = LevelUp.DB_KEY_PREFIX + "scores.";
+
+    private static final ConcurrentHashMap<String, ScoreHandle> sHandles =
+            new ConcurrentHashMap<String, ScoreHandle>();
+    private static final StripedLock sLocks = new StripedLock(32);
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+/**
+ * A fixed set of monitors shared by entity id.  Read-modify-write sequences
+ * on one entity synchronize on its stripe, so updates to different entities
+ * rarely contend and no global lock is needed.
+ */
+class StripedLock {
+
+    /**
+     * @param stripes the number of monitors, rounded up to a power of two
+     */
+    StripedLock(int stripes) {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+
+        mLocks = new Object[size];
+        for (int i = 0; i < size; i++) {
+            mLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Retrieves the monitor guarding the given entity.  Monitors are
+     * reentrant, so a holder may call other guarded methods of the same entity.
+     *
+     * @param id the id of the entity
+     * @return the monitor to synchronize on
+     */
+    Object forId(String id) {
+        int h = id != null ? id.hashCode() : 0;
+        // spread the high bits, ids often differ only in their suffix
+        h ^= (h >>> 16);
+        return mLocks[h & (mLocks.length - 1)];
+    }
+
+    /**
+     * Runs the given task while holding every monitor, so no guarded
+     * sequence of any entity runs at the same time.  Monitors are always
+     * taken in the same order, so concurrent callers can't deadlock.
+     *
+     * @param task the task to run
+     */
+    void runWithAll(Runnable task) {
+        runWithAll(0, task);
+    }
+
+    private void runWithAll(int from, Runnable task) {
+        if (from == mLocks.length) {
+            task.run();
+            return;
+        }
+
+        synchronized (mLocks[from]) {
+            runWithAll(from + 1, task);
+        }
+    }
+
+    private final Object[] mLocks;
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+/**
+ * A handle on a single world's state.  Get one with
+ * <code>WorldStorage.getHandle()</code> and keep it: its keys are built once
+ * and its getters are served from cache until the world's values change.
+ * <p/>
+ * Handles always agree with the static <code>WorldStorage</code> methods,
+ * which the setters go through (so events are posted as usual).
+ */
+public class WorldHandle {
+
+    WorldHandle(String worldId) {
+        mWorldId = worldId;
+        mCompleted = new CachedKey(WorldStorage.keyWorldCompleted(worldId));
+        mReward = new CachedKey(WorldStorage.keyReward(worldId));
+        mLastCompletedInnerWorld = new CachedKey(WorldStorage.keyLastCompletedInnerWorld(worldId));
+    }
+
+    public String getWorldId() {
+        return mWorldId;
+    }
+
+    public boolean isCompleted() {
+        return WorldStorage.isBitsetLayout() ? WorldStorage.isCompleted(mWorldId) : mCompleted.isSet();
+    }
+
+    public void setCompleted(boolean completed) {
+        WorldStorage.setCompleted(mWorldId, completed);
+    }
+
+    public void setCompleted(boolean completed, boolean notify) {
+        WorldStorage.setCompleted(mWorldId, completed, notify);
+    }
+
+    public String getAssignedReward() {
+        return mReward.getString();
+    }
+
+    public void setReward(String rewardId) {
+        WorldStorage.setReward(mWorldId, rewardId);
+    }
+
+    public void setReward(String rewardId, boolean notify) {
+        WorldStorage.setReward(mWorldId, rewardId, notify);
+    }
+
+    public String getLastCompletedInnerWorld() {
+        return mLastCompletedInnerWorld.getString();
+    }
+
+    public void setLastCompletedInnerWorld(String innerWorldId) {
+        WorldStorage.setLastCompletedInnerWorld(mWorldId, innerWorldId);
+    }
+
+    public void setLastCompletedInnerWorld(String innerWorldId, boolean notify) {
+        WorldStorage.setLastCompletedInnerWorld(mWorldId, innerWorldId, notify);
+    }
+
+    public WorldProgress getProgress() {
+        return WorldStorage.getProgress(mWorldId);
+    }
+
+    public boolean isLevel() {
+        return WorldStorage.isLevel(mWorldId);
+    }
+
+    private final String mWorldId;
+    private final CachedKey mCompleted;
+    private final CachedKey mReward;
+    private final CachedKey mLastCompletedInnerWorld;
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+/**
+ * The progress of a world, aggregated over the world and everything in it
+ * (see <code>WorldStorage.getProgress()</code>).
+ */
+public class WorldProgress {
+
+    WorldProgress(String worldId, int totalLevels, int completedLevels, int innerWorlds,
+                  int completedInnerWorlds, long timesPlayed, double recordSum) {
+        mWorldId = worldId;
+        mTotalLevels = totalLevels;
+        mCompletedLevels = completedLevels;
+        mInnerWorlds = innerWorlds;
+        mCompletedInnerWorlds = completedInnerWorlds;
+        mTimesPlayed = timesPlayed;
+        mRecordSum = recordSum;
+    }
+
+    public String getWorldId() {
+        return mWorldId;
+    }
+
+    /**
+     * @return the number of levels in the world, at any depth (the world
+     * itself included, if it's a level)
+     */
+    public int getTotalLevels() {
+        return mTotalLevels;
+    }
+
+    public int getCompletedLevels() {
+        return mCompletedLevels;
+    }
+
+    /**
+     * @return the number of worlds directly inside the world
+     */
+    public int getInnerWorlds() {
+        return mInnerWorlds;
+    }
+
+    public int getCompletedInnerWorlds() {
+        return mCompletedInnerWorlds;
+    }
+
+    /**
+     * @return the times all the levels in the world were played
+     */
+    public long getTimesPlayed() {
+        return mTimesPlayed;
+    }
+
+    /**
+     * @return the sum of the records of all the scores in the world, unset
+     * records excluded
+     */
+    public double getRecordSum() {
+        return mRecordSum;
+    }
+
+    /**
+     * @return the share of the world's levels that are completed, between 0 and 1
+     */
+    public double getCompletedLevelsRatio() {
+        return mTotalLevels > 0 ? (double) mCompletedLevels / mTotalLevels : 0;
+    }
+
+    private final String mWorldId;
+    private final int mTotalLevels;
+    private final int mCompletedLevels;
+    private final int mInnerWorlds;
+    private final int mCompletedInnerWorlds;
+    private final long mTimesPlayed;
+    private final double mRecordSum;
+}
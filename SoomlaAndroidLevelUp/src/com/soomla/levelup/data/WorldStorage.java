@@ -18,22 +18,26 @@ package com.soomla.levelup.data;
 
 import android.text.TextUtils;
 
-import com.soomla.BusProvider;
 import com.soomla.Soomla;
 import com.soomla.SoomlaUtils;
-import com.soomla.data.KeyValueStorage;
 import com.soomla.levelup.LevelUp;
+import com.soomla.levelup.LevelUpModel;
+import com.soomla.levelup.LevelUpModelIndex;
+import com.soomla.levelup.ModelClass;
 import com.soomla.levelup.events.LastCompletedInnerWorldChanged;
+import com.soomla.levelup.events.LevelUpEventDispatcher;
 import com.soomla.levelup.events.LevelUpInitializedEvent;
 import com.soomla.levelup.events.WorldAssignedRewardEvent;
 import com.soomla.levelup.events.WorldCompletedEvent;
+import com.soomla.levelup.metrics.LevelUpMetrics;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class WorldStorage {
 
@@ -41,20 +45,28 @@ public class WorldStorage {
         return DB_WORLD_KEY_PREFIX + worldId + "." + postfix;
     }
 
-    private static String keyWorldCompleted(String worldId) {
+    static String keyWorldCompleted(String worldId) {
         return keyWorlds(worldId, "completed");
     }
 
-    private static String keyReward(String worldId) {
+    static String keyReward(String worldId) {
         return keyWorlds(worldId, "assignedReward");
     }
 
-    private static String keyLastCompletedInnerWorld(String worldId) {
+    static String keyLastCompletedInnerWorld(String worldId) {
         return keyWorlds(worldId, "lastCompletedInnerWorld");
     }
 
     public static void initLevelUp() {
-        BusProvider.getInstance().post(new LevelUpInitializedEvent());
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            // the model was (re)saved before initialization
+            LevelUp.invalidateModel();
+
+            LevelUpEventDispatcher.post(new LevelUpInitializedEvent());
+        } finally {
+            LevelUpMetrics.exit("WorldStorage.initLevelUp", startNanos);
+        }
     }
 
     public static void setCompleted(String worldId, boolean completed) {
@@ -62,24 +74,142 @@ public class WorldStorage {
     }
 
     public static void setCompleted(String worldId, boolean completed, boolean notify) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (sCompletedFlags.isEnabled()) {
+                sCompletedFlags.set(worldId, completed);
+            } else if (completed) {
+                LUKeyValueStorage.setValue(keyWorldCompleted(worldId), "yes");
+            } else {
+                LUKeyValueStorage.deleteKeyValue(keyWorldCompleted(worldId));
+            }
+            LevelUpChangeLog.recordChange(LUJSONConsts.LU_WORLDS, worldId);
+            ProgressTracker.onWorldChanged(worldId);
 
-        String key = keyWorldCompleted(worldId);
+            if (completed && notify) {
+                LevelUpEventDispatcher.post(new WorldCompletedEvent(worldId));
+            }
+        } finally {
+            LevelUpMetrics.exit("WorldStorage.setCompleted", startNanos);
+        }
+    }
 
-        if (completed) {
-            KeyValueStorage.setValue(key, "yes");
+    public static boolean isCompleted(String worldId) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (sCompletedFlags.isEnabled()) {
+                return sCompletedFlags.get(worldId);
+            }
 
-            if (notify) {
-                BusProvider.getInstance().post(new WorldCompletedEvent(worldId));
+            String key = keyWorldCompleted(worldId);
+            String val = LUKeyValueStorage.getValue(key);
+            return !TextUtils.isEmpty(val);
+        } finally {
+            LevelUpMetrics.exit("WorldStorage.isCompleted", startNanos);
+        }
+    }
+
+    /**
+     * Checks which of the given worlds are completed.  In the bitset layout
+     * every chunk of flags is read once for all the worlds.
+     *
+     * @param worldIds the ids of the worlds to check
+     * @return the completion state of each world
+     */
+    public static Map<String, Boolean> getCompletedStates(Collection<String> worldIds) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (sCompletedFlags.isEnabled()) {
+                return sCompletedFlags.getAll(worldIds);
             }
-        } else {
-            KeyValueStorage.deleteKeyValue(key);
+
+            Map<String, Boolean> completedStates = new HashMap<String, Boolean>(worldIds.size() * 2);
+            for (String worldId : worldIds) {
+                completedStates.put(worldId, isCompleted(worldId));
+            }
+            return completedStates;
+        } finally {
+            LevelUpMetrics.exit("WorldStorage.getCompletedStates", startNanos);
         }
     }
 
-    public static boolean isCompleted(String worldId) {
-        String key = keyWorldCompleted(worldId);
-        String val = KeyValueStorage.getValue(key);
-        return !TextUtils.isEmpty(val);
+    /**
+     * Sets the completion state of the given worlds.  In the bitset layout
+     * every changed chunk of flags is written once for all the worlds.
+     *
+     * @param completedStates the new completion state of each world
+     * @param notify <code>true</code> to post an event per completed world
+     */
+    public static void setCompletedStates(Map<String, Boolean> completedStates, boolean notify) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            if (!sCompletedFlags.isEnabled()) {
+                for (Map.Entry<String, Boolean> completedState : completedStates.entrySet()) {
+                    setCompleted(completedState.getKey(), completedState.getValue(), notify);
+                }
+                return;
+            }
+
+            sCompletedFlags.writeAll(completedStates);
+            for (Map.Entry<String, Boolean> completedState : completedStates.entrySet()) {
+                LevelUpChangeLog.recordChange(LUJSONConsts.LU_WORLDS, completedState.getKey());
+                ProgressTracker.onWorldChanged(completedState.getKey());
+                if (completedState.getValue() && notify) {
+                    LevelUpEventDispatcher.post(new WorldCompletedEvent(completedState.getKey()));
+                }
+            }
+        } finally {
+            LevelUpMetrics.exit("WorldStorage.setCompletedStates", startNanos);
+        }
+    }
+
+
+    /**
+     * Bitset Layout *
+     */
+
+    /**
+     * Checks whether completion flags are stored in the bitset layout.
+     *
+     * @return <code>true</code> if the completion flags of all worlds are packed into bitsets
+     */
+    public static boolean isBitsetLayout() {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            return sCompletedFlags.isEnabled();
+        } finally {
+            LevelUpMetrics.exit("WorldStorage.isBitsetLayout", startNanos);
+        }
+    }
+
+    /**
+     * Switches to the bitset layout, migrating the completion flags stored
+     * under per-world keys.  Worlds get their bits in the order of the
+     * current model, and worlds added later get theirs when they're first
+     * set.  The switch is persisted, so it only needs to be done once;
+     * calling this again is a no-op.
+     */
+    public static void enableBitsetLayout() {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            List<String> worldIds = new ArrayList<String>();
+            LevelUpModel model = LevelUp.getModel();
+            if (model != null) {
+                LevelUpModelIndex.EntityTable worlds = model.getIndex().getWorlds();
+                for (int i = 0; i < worlds.size(); i++) {
+                    worldIds.add(worlds.getId(i));
+                }
+            }
+
+            sCompletedFlags.enable(DB_WORLD_KEY_PREFIX, ".completed", worldIds);
+        } finally {
+            LevelUpMetrics.exit("WorldStorage.enableBitsetLayout", startNanos);
+        }
+    }
+
+    // the layout is read again from the storage when it's next needed
+    static void unloadLayout() {
+        sCompletedFlags.unload();
     }
 
 
@@ -92,23 +222,33 @@ public class WorldStorage {
     }
 
     public static void setReward(String worldId, String rewardId, boolean notify) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            String key = keyReward(worldId);
+            if (!TextUtils.isEmpty(rewardId)) {
+                LUKeyValueStorage.setValue(key, rewardId);
+            } else {
+                LUKeyValueStorage.deleteKeyValue(key);
+            }
+            LevelUpChangeLog.recordChange(LUJSONConsts.LU_WORLDS, worldId);
 
-        String key = keyReward(worldId);
-        if (!TextUtils.isEmpty(rewardId)) {
-            KeyValueStorage.setValue(key, rewardId);
-        } else {
-            KeyValueStorage.deleteKeyValue(key);
-        }
-
-        if (notify) {
-            // Notify world was assigned a reward
-            BusProvider.getInstance().post(new WorldAssignedRewardEvent(worldId));
+            if (notify) {
+                // Notify world was assigned a reward
+                LevelUpEventDispatcher.post(new WorldAssignedRewardEvent(worldId));
+            }
+        } finally {
+            LevelUpMetrics.exit("WorldStorage.setReward", startNanos);
         }
     }
 
     public static String getAssignedReward(String worldId) {
-        String key = keyReward(worldId);
-        return KeyValueStorage.getValue(key);
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            String key = keyReward(worldId);
+            return LUKeyValueStorage.getValue(key);
+        } finally {
+            LevelUpMetrics.exit("WorldStorage.getAssignedReward", startNanos);
+        }
     }
 
     /**
@@ -120,45 +260,100 @@ public class WorldStorage {
     }
 
     public static void setLastCompletedInnerWorld(String worldId, String innerWorldId, boolean notify) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            String key = keyLastCompletedInnerWorld(worldId);
+            if (!TextUtils.isEmpty(innerWorldId)) {
+                LUKeyValueStorage.setValue(key, innerWorldId);
+            } else {
+                LUKeyValueStorage.deleteKeyValue(key);
+            }
+            LevelUpChangeLog.recordChange(LUJSONConsts.LU_WORLDS, worldId);
 
-        String key = keyLastCompletedInnerWorld(worldId);
-        if (!TextUtils.isEmpty(innerWorldId)) {
-            KeyValueStorage.setValue(key, innerWorldId);
-        } else {
-            KeyValueStorage.deleteKeyValue(key);
+            if (notify) {
+                // Notify world had inner level complete
+                LevelUpEventDispatcher.post(new LastCompletedInnerWorldChanged(worldId, innerWorldId));
+            }
+        } finally {
+            LevelUpMetrics.exit("WorldStorage.setLastCompletedInnerWorld", startNanos);
         }
+    }
 
-        if (notify) {
-            // Notify world had inner level complete
-            BusProvider.getInstance().post(new LastCompletedInnerWorldChanged(worldId, innerWorldId));
+    public static String getLastCompletedInnerWorld(String worldId) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            String key = keyLastCompletedInnerWorld(worldId);
+            return LUKeyValueStorage.getValue(key);
+        } finally {
+            LevelUpMetrics.exit("WorldStorage.getLastCompletedInnerWorld", startNanos);
         }
     }
 
-    public static String getLastCompletedInnerWorld(String worldId) {
-        String key = keyLastCompletedInnerWorld(worldId);
-        return KeyValueStorage.getValue(key);
+    /**
+     * Retrieves the progress of the given world: its completed levels and
+     * inner worlds, the times its levels were played and the sum of its
+     * scores' records.  The progress of all worlds is aggregated once and
+     * then kept up to date as it changes, so this is a constant-time lookup.
+     *
+     * @param worldId the id of the world
+     * @return the world's progress, or <code>null</code> if it's not in the model
+     */
+    public static WorldProgress getProgress(String worldId) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            return ProgressTracker.getProgress(worldId);
+        } finally {
+            LevelUpMetrics.exit("WorldStorage.getProgress", startNanos);
+        }
     }
 
     public static boolean isLevel(String worldId) {
-        JSONObject model = LevelUp.getLevelUpModel();
-        if (model != null) {
-            HashMap<String, JSONObject> worlds = LevelUp.getWorlds(model);
-            JSONObject world = worlds.get(worldId);
-            if (world != null) {
-                try {
-                    if (world.getString("itemId").equals(worldId)) {
-                        return (world.getString("className").equals("Level"));
-                    }
-                }
-                catch (JSONException ex) {
-                    SoomlaUtils.LogDebug(TAG, "Model JSON is malformed " + ex.getMessage());
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            LevelUpModel model = LevelUp.getModel();
+            if (model != null) {
+                LevelUpModelIndex.EntityTable worlds = model.getIndex().getWorlds();
+                int world = worlds.ordinalOf(worldId);
+                if (world >= 0) {
+                    return worlds.getModelClass(world) == ModelClass.LEVEL;
                 }
             }
+
+            return false;
+        } finally {
+            LevelUpMetrics.exit("WorldStorage.isLevel", startNanos);
         }
+    }
 
-        return false;
+    /**
+     * Retrieves the handle of the given world.  Handles are shared, so
+     * every call with the same id returns the same handle.
+     *
+     * @param worldId the id of the world
+     * @return the world's handle
+     */
+    public static WorldHandle getHandle(String worldId) {
+        long startNanos = LevelUpMetrics.enter();
+        try {
+            WorldHandle handle = sHandles.get(worldId);
+            if (handle == null) {
+                WorldHandle created = new WorldHandle(worldId);
+                handle = sHandles.putIfAbsent(worldId, created);
+                if (handle == null) {
+                    handle = created;
+                }
+            }
+            return handle;
+        } finally {
+            LevelUpMetrics.exit("WorldStorage.getHandle", startNanos);
+        }
     }
 
     public static final String DB_WORLD_KEY_PREFIX = LevelUp.DB_KEY_PREFIX + "worlds.";
+
+    private static final FlagBitset sCompletedFlags = new FlagBitset(DB_WORLD_KEY_PREFIX, "completed");
     private static final String TAG = "SOOMLA WorldStorage";
+
+    private static final ConcurrentHashMap<String, WorldHandle> sHandles =
+            new ConcurrentHashMap<String, WorldHandle>();
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.data;
+
+import com.soomla.SoomlaUtils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the mutations made in write-behind mode until a background thread
+ * persists them.  The pending values are authoritative: reads check them
+ * before the storage.  Repeated writes to a key are coalesced, so only the
+ * latest value of each key is ever written.
+ */
+class WriteBehindQueue {
+
+    WriteBehindQueue(LUKeyRegistry registry, long flushIntervalMillis) {
+        mRegistry = registry;
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SOOMLA LevelUp write-behind");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Looks up the pending mutation of a key.
+     *
+     * @param key the key to look up
+     * @return the pending value of the key, <code>null</code> if it's pending
+     * deletion, or <code>NOT_PENDING</code> if the stored value is current
+     */
+    synchronized String get(String key) {
+        String val = mPending.get(key);
+        if (val == null && mFlushing != null) {
+            val = mFlushing.get(key);
+        }
+        if (val == null) {
+            return NOT_PENDING;
+        }
+        return val == TOMBSTONE ? null : val;
+    }
+
+    /**
+     * Queues a new value of a key.
+     *
+     * @param key the written key
+     * @param val the new value, or <code>null</code> to delete the key
+     * @return <code>false</code> if the queue was shut down, in which case the
+     * caller has to write the value through.  All the values queued before are
+     * persisted by then, so they can't overwrite it.
+     */
+    boolean put(String key, String val) {
+        synchronized (this) {
+            if (!mClosed) {
+                mPending.put(key, val != null ? val : TOMBSTONE);
+                return true;
+            }
+        }
+
+        // waits for the flush of shutdown() if it's still running
+        flush();
+        return false;
+    }
+
+    boolean delete(String key) {
+        return put(key, null);
+    }
+
+    /**
+     * Persists all the pending mutations on the calling thread.  Mutations
+     * made while flushing are left for the next flush, and so are the ones
+     * that couldn't be written.
+     *
+     * @return the number of keys written or deleted, <code>0</code> if
+     * writing failed
+     */
+    int flush() {
+        synchronized (mFlushLock) {
+            Map<String, String> flushing;
+            synchronized (this) {
+                if (mPending.isEmpty()) {
+                    return 0;
+                }
+                // stays readable until it's written out
+                flushing = mFlushing = mPending;
+                mPending = new LinkedHashMap<String, String>();
+            }
+
+            try {
+                List<String> writtenKeys = new ArrayList<String>(flushing.size());
+                for (Map.Entry<String, String> mutation : flushing.entrySet()) {
+                    if (mutation.getValue() != TOMBSTONE) {
+                        LUKeyValueStorage.backend().setValue(mutation.getKey(), mutation.getValue());
+                        writtenKeys.add(mutation.getKey());
+                    } else {
+                        LUKeyValueStorage.backend().deleteKeyValue(mutation.getKey());
+                    }
+                }
+                mRegistry.registerAll(writtenKeys);
+                return flushing.size();
+            } catch (RuntimeException e) {
+                SoomlaUtils.LogError(TAG, "Unable to flush pending mutations, retrying later: " + e.getLocalizedMessage());
+                requeue(flushing);
+                return 0;
+            } finally {
+                synchronized (this) {
+                    mFlushing = null;
+                }
+            }
+        }
+    }
+
+    // puts back the mutations that weren't superseded while flushing
+    private synchronized void requeue(Map<String, String> flushing) {
+        LinkedHashMap<String, String> pending = new LinkedHashMap<String, String>(flushing);
+        pending.putAll(mPending);
+        mPending = pending;
+    }
+
+    /**
+     * Stops the background thread and persists all the pending mutations.
+     * Mutations that can't be persisted then are dropped: no thread is left
+     * to retry them, and reads no longer see the queue.
+     *
+     * @return the number of mutations that were lost
+     */
+    int shutdown() {
+        mExecutor.shutdown();
+        synchronized (this) {
+            mClosed = true;
+        }
+        flush();
+
+        synchronized (this) {
+            int lost = mPending.size();
+            if (lost > 0) {
+                SoomlaUtils.LogError(TAG, "Unable to persist " + lost + " pending mutations on shutdown, they are lost");
+                mPending.clear();
+            }
+            return lost;
+        }
+    }
+
+    // compared by identity, a stored value can never be one of these instances
+    static final String NOT_PENDING = new String("");
+    private static final String TOMBSTONE = new String("");
+    private static final String TAG = "SOOMLA WriteBehindQueue";
+
+    private final LUKeyRegistry mRegistry;
+    private final ScheduledExecutorService mExecutor;
+    private final Object mFlushLock = new Object();
+    private LinkedHashMap<String, String> mPending = new LinkedHashMap<String, String>();
+    private Map<String, String> mFlushing;
+    private boolean mClosed;
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2012-2015 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.events;
+
+import com.soomla.BusProvider;
+import com.soomla.SoomlaUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Posts the LevelUp events on the bus, either right away on the calling
+ * thread or queued and delivered from a background thread.
+ * <p/>
+ * Queued events wait for the dispatch delay (one frame by default) before
+ * they're delivered, so events posted in a burst are delivered together.
+ * While queued, a <code>LatestScoreChangedEvent</code> for a score makes any
+ * later one for the same score redundant (it carries no values, subscribers
+ * read the current ones), so those are coalesced.  Queued
+ * <code>ScoreRecordChangedEvent</code>s of a score are merged into one, at
+ * the position of the first, spanning from its old record to the latest new
+ * record.
+ */
+public class LevelUpEventDispatcher {
+
+    public enum Mode {
+        /**
+         * Events are posted on the calling thread as they happen (default).
+         */
+        SYNC,
+
+        /**
+         * Events are queued and posted one by one from a background thread.
+         */
+        ASYNC,
+
+        /**
+         * Events are queued and the queued events are posted together from a
+         * background thread as a single <code>LevelUpEventsBatchEvent</code>.
+         */
+        BATCHED
+    }
+
+    /**
+     * Posts the given event according to the current mode.
+     *
+     * @param event the event to post
+     */
+    public static void post(Object event) {
+        if (sMode == Mode.SYNC) {
+            BusProvider.getInstance().post(event);
+            return;
+        }
+
+        boolean schedule;
+        synchronized (sLock) {
+            String coalesceKey = coalesceKeyOf(event);
+            if (coalesceKey != null) {
+                Integer queued = sCoalesced.get(coalesceKey);
+                if (queued != null) {
+                    sPending.set(queued, merge(sPending.get(queued), event));
+                    return;
+                }
+                sCoalesced.put(coalesceKey, sPending.size());
+            }
+
+            schedule = sPending.isEmpty();
+            sPending.add(event);
+        }
+
+        if (schedule) {
+            sExecutor.schedule(DRAIN, sDispatchDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Changes how events are posted.  Events queued before switching to
+     * <code>SYNC</code> are delivered before this returns.
+     *
+     * @param mode the new mode
+     */
+    public static void setMode(Mode mode) {
+        sMode = mode;
+        if (mode == Mode.SYNC) {
+            flush();
+        }
+    }
+
+    public static Mode getMode() {
+        return sMode;
+    }
+
+    /**
+     * Sets how long queued events wait before they're delivered.  Longer
+     * delays coalesce more events but deliver them later.
+     *
+     * @param dispatchDelayMillis the delay, <code>0</code> to deliver as soon as possible
+     */
+    public static void setDispatchDelay(long dispatchDelayMillis) {
+        sDispatchDelayMillis = Math.max(0, dispatchDelayMillis);
+    }
+
+    /**
+     * Waits until all the queued events have been delivered.  Called by a
+     * subscriber on the dispatcher's thread, it delivers them right away.
+     */
+    public static void flush() {
+        // the dispatcher's thread can't wait for itself
+        if (Thread.currentThread() == sDispatcherThread) {
+            DRAIN.run();
+            return;
+        }
+
+        try {
+            sExecutor.submit(DRAIN).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            SoomlaUtils.LogError(TAG, "Unable to deliver queued events: " + e.getLocalizedMessage());
+        }
+    }
+
+    private static String coalesceKeyOf(Object event) {
+        if (event instanceof LatestScoreChangedEvent) {
+            return "latest." + ((LatestScoreChangedEvent) event).ScoreId;
+        }
+        if (event instanceof ScoreRecordChangedEvent) {
+            return "record." + ((ScoreRecordChangedEvent) event).ScoreId;
+        }
+        return null;
+    }
+
+    // the event standing for both a queued event and a later one with the same coalesce key
+    private static Object merge(Object queued, Object event) {
+        if (event instanceof ScoreRecordChangedEvent) {
+            ScoreRecordChangedEvent first = (ScoreRecordChangedEvent) queued;
+            ScoreRecordChangedEvent last = (ScoreRecordChangedEvent) event;
+            return new ScoreRecordChangedEvent(first.ScoreId, first.OldRecord, last.NewRecord);
+        }
+        return queued;
+    }
+
+    private static final Runnable DRAIN = new Runnable() {
+        @Override
+        public void run() {
+            List<Object> events = null;
+            synchronized (sLock) {
+                if (!sPending.isEmpty()) {
+                    events = sPending;
+                    sPending = new ArrayList<Object>();
+                    sCoalesced.clear();
+                }
+            }
+
+            if (events != null && sMode != Mode.BATCHED) {
+                sDelivering.addAll(events);
+                events = null;
+            }
+
+            // a subscriber flushing runs this again from inside the loop, so
+            // it goes on with the events this run didn't deliver yet
+            Object event;
+            while ((event = sDelivering.poll()) != null) {
+                BusProvider.getInstance().post(event);
+            }
+
+            if (events != null) {
+                BusProvider.getInstance().post(new LevelUpEventsBatchEvent(Collections.unmodifiableList(events)));
+            }
+        }
+    };
+
+    private static final String TAG = "SOOMLA LevelUpEventDispatcher";
+
+    private static volatile Mode sMode = Mode.SYNC;
+    private static volatile long sDispatchDelayMillis = 16;
+
+    private static final Object sLock = new Object();
+    private static List<Object> sPending = new ArrayList<Object>();
+    // the position of the queued event of every coalesce key
+    private static final HashMap<String, Integer> sCoalesced = new HashMap<String, Integer>();
+    // the drained events still to be delivered, only used on the dispatcher's thread
+    private static final ArrayDeque<Object> sDelivering = new ArrayDeque<Object>();
+    private static volatile Thread sDispatcherThread;
+
+    // a single thread keeps the events in order
+    private static final ScheduledExecutorService sExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SOOMLA LevelUp events");
+            thread.setDaemon(true);
+            sDispatcherThread = thread;
+            return thread;
+        }
+    });
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2012-2015 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.events;
+
+import java.util.List;
+
+/**
+ * This event is fired instead of the individual events when events are
+ * dispatched in batches (see <code>LevelUpEventDispatcher.Mode.BATCHED</code>).
+ */
+public class LevelUpEventsBatchEvent {
+
+    /**
+     * read-only Properties *
+     */
+    public final List<Object> Events;
+
+    /**
+     * Constructor
+     *
+     * @param events the batched events, in the order they were posted
+     */
+    public LevelUpEventsBatchEvent(List<Object> events) {
+        Events = events;
+    }
+}
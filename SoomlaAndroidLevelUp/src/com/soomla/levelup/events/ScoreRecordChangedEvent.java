@@ -26,12 +26,32 @@ public class ScoreRecordChangedEvent {
      */
     public final String ScoreId;
 
+    /**
+     * The record before the change, <code>-1</code> if it wasn't set, or
+     * <code>NaN</code> if the event was created without it
+     */
+    public final double OldRecord;
+    public final double NewRecord;
+
     /**
      * Constructor
      *
      * @param scoreId the if of the score which has been changed
      */
     public ScoreRecordChangedEvent(String scoreId) {
+        this(scoreId, Double.NaN, Double.NaN);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param scoreId the id of the score which has been changed
+     * @param oldRecord the record before the change
+     * @param newRecord the new record
+     */
+    public ScoreRecordChangedEvent(String scoreId, double oldRecord, double newRecord) {
         ScoreId = scoreId;
+        OldRecord = oldRecord;
+        NewRecord = newRecord;
     }
 }
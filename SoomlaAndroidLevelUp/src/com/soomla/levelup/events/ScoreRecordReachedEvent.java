@@ -25,6 +25,7 @@ public class ScoreRecordReachedEvent {
      * read-only Properties *
      */
     public final String ScoreId;
+    public final double DesiredRecord;
 
     /**
      * Constructor
@@ -32,6 +33,17 @@ public class ScoreRecordReachedEvent {
      * @param scoreId the id of the score which has reached a new record
      */
     public ScoreRecordReachedEvent(String scoreId) {
+        this(scoreId, Double.NaN);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param scoreId the id of the score which has reached a new record
+     * @param desiredRecord the record gate threshold that was crossed
+     */
+    public ScoreRecordReachedEvent(String scoreId, double desiredRecord) {
         ScoreId = scoreId;
+        DesiredRecord = desiredRecord;
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.metrics;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An in-memory recorder keeping a call counter and a latency histogram per
+ * operation.  Recording is lock-free; take a snapshot (or dump it as JSON)
+ * to ship the metrics into your telemetry.
+ */
+public class HistogramMetricsRecorder implements IMetricsRecorder {
+
+    @Override
+    public void record(String operation, long durationNanos) {
+        Stats stats = mStats.get(operation);
+        if (stats == null) {
+            Stats created = new Stats();
+            stats = mStats.putIfAbsent(operation, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        stats.add(durationNanos);
+    }
+
+    /**
+     * @return a snapshot of every recorded operation, sorted by name
+     */
+    public List<OperationSnapshot> getSnapshot() {
+        List<OperationSnapshot> snapshot = new ArrayList<OperationSnapshot>(mStats.size());
+        for (String operation : mStats.keySet()) {
+            snapshot.add(mStats.get(operation).snapshot(operation));
+        }
+
+        Collections.sort(snapshot, new Comparator<OperationSnapshot>() {
+            @Override
+            public int compare(OperationSnapshot lhs, OperationSnapshot rhs) {
+                return lhs.getOperation().compareTo(rhs.getOperation());
+            }
+        });
+        return snapshot;
+    }
+
+    /**
+     * @return the snapshot as JSON, keyed by operation name
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        for (OperationSnapshot operation : getSnapshot()) {
+            try {
+                json.put(operation.getOperation(), operation.toJSON());
+            } catch (JSONException e) {
+                // only thrown for null names, there are none here
+            }
+        }
+        return json;
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void reset() {
+        mStats.clear();
+    }
+
+    private static class Stats {
+
+        void add(long durationNanos) {
+            mCount.incrementAndGet();
+            mTotalNanos.addAndGet(durationNanos);
+            mBuckets.incrementAndGet(OperationSnapshot.bucketOf(durationNanos));
+
+            long max = mMaxNanos.get();
+            while (durationNanos > max && !mMaxNanos.compareAndSet(max, durationNanos)) {
+                max = mMaxNanos.get();
+            }
+        }
+
+        // the fields are read one by one, so a snapshot taken while recording
+        // may be off by the calls in flight
+        OperationSnapshot snapshot(String operation) {
+            long[] buckets = new long[OperationSnapshot.BUCKETS];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = mBuckets.get(i);
+            }
+            return new OperationSnapshot(operation, mCount.get(), mTotalNanos.get(), mMaxNanos.get(), buckets);
+        }
+
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mTotalNanos = new AtomicLong();
+        private final AtomicLong mMaxNanos = new AtomicLong();
+        private final AtomicLongArray mBuckets = new AtomicLongArray(OperationSnapshot.BUCKETS);
+    }
+
+    private final ConcurrentHashMap<String, Stats> mStats = new ConcurrentHashMap<String, Stats>();
+}
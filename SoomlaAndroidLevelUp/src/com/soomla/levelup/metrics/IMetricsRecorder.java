@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.metrics;
+
+/**
+ * Receives the duration of every instrumented LevelUp operation.
+ * Set one with <code>LevelUpMetrics.setRecorder()</code>.
+ * <p/>
+ * <code>record()</code> is called on the thread that ran the operation, right
+ * after it, so implementations should be thread-safe and cheap.
+ */
+public interface IMetricsRecorder {
+
+    /**
+     * @param operation the name of the operation, e.g. <code>LevelUpMetrics.GET_STATE</code>
+     * @param durationNanos how long the operation took
+     */
+    void record(String operation, long durationNanos);
+}
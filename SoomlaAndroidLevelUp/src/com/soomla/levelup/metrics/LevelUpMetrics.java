@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.metrics;
+
+/**
+ * The switch for LevelUp's operation metrics.  LevelUp's state operations,
+ * every public method of the storage classes and every access to the
+ * underlying storage are timed when a recorder is set; without one, an
+ * operation only pays for a volatile read before and after it.
+ * <p/>
+ * Each operation is recorded once, under the name of the public method that
+ * was called, even when it's implemented by another one (e.g. a full delta
+ * being applied as a reset).  Operations timed with <code>enter()</code> and
+ * <code>exit()</code> aren't recorded while another one runs on the same
+ * thread, so e.g. <code>incTimesPlayed()</code> isn't also recorded as the
+ * <code>setTimesPlayed()</code> it calls, and an export isn't also recorded
+ * as every storage method it calls.  Storage access is always recorded.
+ */
+public class LevelUpMetrics {
+
+    /** LevelUp state operations **/
+
+    public static final String GET_STATE = "LevelUp.getLevelUpState";
+    public static final String GET_STATE_PARALLEL = "LevelUp.getLevelUpState.parallel";
+    public static final String WRITE_STATE = "LevelUp.writeLevelUpState";
+    public static final String GET_STATE_SNAPSHOT = "LevelUp.getLevelUpStateSnapshot";
+    public static final String GET_STATE_CHANGES = "LevelUp.getLevelUpStateChangesSince";
+    public static final String RESET_STATE = "LevelUp.resetLevelUpState";
+    public static final String RESET_STATE_FROM_SNAPSHOT = "LevelUp.resetLevelUpStateFromSnapshot";
+    public static final String RESET_STATE_FROM_STREAM = "LevelUp.resetLevelUpStateFromStream";
+    public static final String APPLY_STATE_DELTA = "LevelUp.applyLevelUpStateDelta";
+    public static final String PARSE_MODEL = "LevelUp.parseModel";
+
+    /** Storage operations **/
+
+    public static final String STORAGE_GET = "KeyValueStorage.getValue";
+    public static final String STORAGE_SET = "KeyValueStorage.setValue";
+    public static final String STORAGE_DELETE = "KeyValueStorage.deleteKeyValue";
+    public static final String STORAGE_GET_ALL_KEYS = "KeyValueStorage.getAllKeys";
+
+    /**
+     * Enables metrics, sending them to the given recorder.
+     *
+     * @param recorder the recorder, or <code>null</code> to disable metrics
+     */
+    public static void setRecorder(IMetricsRecorder recorder) {
+        sRecorder = recorder;
+    }
+
+    public static IMetricsRecorder getRecorder() {
+        return sRecorder;
+    }
+
+    public static boolean isEnabled() {
+        return sRecorder != null;
+    }
+
+    /**
+     * Marks the start of an operation that isn't recorded when it runs
+     * inside another operation started with <code>enter()</code>.
+     *
+     * @return the value to pass to <code>exit()</code>
+     */
+    public static long enter() {
+        if (sRecorder == null) {
+            return 0;
+        }
+
+        int[] depth = sDepth.get();
+        return depth[0]++ == 0 ? System.nanoTime() : NESTED;
+    }
+
+    /**
+     * Marks the end of an operation started with <code>enter()</code>,
+     * recording it unless it was nested in another one.
+     *
+     * @param operation the name of the operation
+     * @param startNanos the value returned from <code>enter()</code>
+     */
+    public static void exit(String operation, long startNanos) {
+        if (startNanos == 0) {
+            return;
+        }
+
+        sDepth.get()[0]--;
+        if (startNanos != NESTED) {
+            stop(operation, startNanos);
+        }
+    }
+
+    /**
+     * Marks the start of an operation.
+     *
+     * @return the start time to pass to <code>stop()</code>, or <code>0</code>
+     * if metrics are disabled
+     */
+    public static long start() {
+        return sRecorder != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records an operation started with <code>start()</code>.
+     *
+     * @param operation the name of the operation, one of the constants above
+     * @param startNanos the value returned from <code>start()</code>
+     */
+    public static void stop(String operation, long startNanos) {
+        IMetricsRecorder recorder = sRecorder;
+        if (recorder == null || startNanos == 0) {
+            return;
+        }
+        recorder.record(operation, System.nanoTime() - startNanos);
+    }
+
+    private static final long NESTED = Long.MIN_VALUE;
+
+    private static volatile IMetricsRecorder sRecorder;
+    private static final ThreadLocal<int[]> sDepth = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+}
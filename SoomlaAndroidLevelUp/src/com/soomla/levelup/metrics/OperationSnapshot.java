@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.metrics;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The metrics of a single operation at some point in time.
+ * <p/>
+ * Durations are kept in a log2 histogram: bucket <code>i</code> counts the
+ * calls that took <code>[2^i, 2^(i+1))</code> nanoseconds, so percentiles are
+ * accurate to within a factor of two.
+ */
+public class OperationSnapshot {
+
+    public static final int BUCKETS = 64;
+
+    OperationSnapshot(String operation, long count, long totalNanos, long maxNanos, long[] buckets) {
+        mOperation = operation;
+        mCount = count;
+        mTotalNanos = totalNanos;
+        mMaxNanos = maxNanos;
+        mBuckets = buckets;
+    }
+
+    public String getOperation() {
+        return mOperation;
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    public long getMeanNanos() {
+        return mCount > 0 ? mTotalNanos / mCount : 0;
+    }
+
+    /**
+     * @param bucket a bucket index, below <code>BUCKETS</code>
+     * @return the number of calls in the bucket
+     */
+    public long getBucketCount(int bucket) {
+        return mBuckets[bucket];
+    }
+
+    /**
+     * Estimates a percentile of the durations.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, capped at
+     * the max duration
+     */
+    public long getPercentileNanos(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(mCount * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mBuckets[i];
+            if (seen >= rank && seen > 0) {
+                long upperBound = i >= BUCKETS - 2 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+                return Math.min(upperBound, mMaxNanos);
+            }
+        }
+        return mMaxNanos;
+    }
+
+    /**
+     * @return the snapshot as JSON, with the non-empty histogram buckets as
+     * <code>[bucket, count]</code> pairs
+     */
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("count", mCount);
+            json.put("totalNanos", mTotalNanos);
+            json.put("meanNanos", getMeanNanos());
+            json.put("maxNanos", mMaxNanos);
+            json.put("p50Nanos", getPercentileNanos(50));
+            json.put("p99Nanos", getPercentileNanos(99));
+
+            JSONArray histogram = new JSONArray();
+            for (int i = 0; i < BUCKETS; i++) {
+                if (mBuckets[i] > 0) {
+                    histogram.put(new JSONArray().put(i).put(mBuckets[i]));
+                }
+            }
+            json.put("histogram", histogram);
+        } catch (JSONException e) {
+            // only thrown for non-finite doubles, there are none here
+        }
+        return json;
+    }
+
+    static int bucketOf(long durationNanos) {
+        return durationNanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(durationNanos);
+    }
+
+    private final String mOperation;
+    private final long mCount;
+    private final long mTotalNanos;
+    private final long mMaxNanos;
+    private final long[] mBuckets;
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.benchmarks;
+
+import com.soomla.levelup.data.IStorageBackend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A <code>KeyValueStorage</code> stand-in that keeps everything in memory.
+ * It doesn't encrypt, so benchmarks measure LevelUp's own overhead.
+ */
+public class InMemoryStorageBackend implements IStorageBackend {
+
+    @Override
+    public String getValue(String key) {
+        return mValues.get(key);
+    }
+
+    @Override
+    public void setValue(String key, String val) {
+        if (val == null) {
+            mValues.remove(key);
+            return;
+        }
+        mValues.put(key, val);
+    }
+
+    @Override
+    public void deleteKeyValue(String key) {
+        mValues.remove(key);
+    }
+
+    @Override
+    public List<String> getAllKeys() {
+        return new ArrayList<String>(mValues.keySet());
+    }
+
+    /**
+     * @return the number of stored keys
+     */
+    public int size() {
+        return mValues.size();
+    }
+
+    private final ConcurrentHashMap<String, String> mValues = new ConcurrentHashMap<String, String>();
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.benchmarks;
+
+import com.soomla.levelup.LevelUp;
+import com.soomla.levelup.LevelUpModelIndex;
+import com.soomla.levelup.ModelClass;
+import com.soomla.levelup.data.GateStorage;
+import com.soomla.levelup.data.LUJSONConsts;
+import com.soomla.levelup.data.LUKeyValueStorage;
+import com.soomla.levelup.data.LevelRecord;
+import com.soomla.levelup.data.LevelStorage;
+import com.soomla.levelup.data.MissionStorage;
+import com.soomla.levelup.data.ScoreStorage;
+import com.soomla.levelup.data.WorldStorage;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Builds synthetic LevelUp models and states for the benchmarks.
+ * <p/>
+ * The main world holds <code>worlds</code> worlds.  Every world holds
+ * <code>levelsPerWorld</code> levels, each with one score and
+ * <code>missionsPerLevel</code> record missions, and every level after the
+ * first is behind a gates list nested <code>gateDepth</code> levels deep,
+ * requiring the previous level to be completed and a record on its score.
+ */
+public class LevelUpFixture {
+
+    public static final String MAIN_WORLD_ID = "main_world";
+
+    public LevelUpFixture(int worlds, int levelsPerWorld, int missionsPerLevel, int gateDepth) {
+        mWorlds = worlds;
+        mLevelsPerWorld = levelsPerWorld;
+        mMissionsPerLevel = missionsPerLevel;
+        mGateDepth = gateDepth;
+    }
+
+    /**
+     * Switches LevelUp to a fresh in-memory storage holding the model.
+     *
+     * @return the new storage
+     */
+    public InMemoryStorageBackend install() throws JSONException {
+        InMemoryStorageBackend backend = new InMemoryStorageBackend();
+        backend.setValue(LevelUp.DB_MODEL_KEY, buildModel().toString());
+        LUKeyValueStorage.setBackend(backend);
+        return backend;
+    }
+
+    /**
+     * Gives every entity in the installed model a non-default state.
+     */
+    public void populate() {
+        LevelUpModelIndex index = LevelUp.getModel().getIndex();
+
+        LevelUpModelIndex.EntityTable worlds = index.getWorlds();
+        for (int i = 0; i < worlds.size(); i++) {
+            String worldId = worlds.getId(i);
+            WorldStorage.setCompleted(worldId, i % 2 == 0, false);
+            if (worlds.getModelClass(i) == ModelClass.LEVEL) {
+                LevelRecord record = new LevelRecord();
+                record.setTimesStarted(i + 3);
+                record.setTimesPlayed(i + 2);
+                record.setTimesCompleted(i + 1);
+                record.setLastDurationMillis(1000 + i);
+                record.setSlowestDurationMillis(2000 + i);
+                record.setFastestDurationMillis(500 + i);
+                LevelStorage.setLevelRecord(worldId, record);
+            } else {
+                WorldStorage.setReward(worldId, "reward_" + i, false);
+            }
+        }
+
+        LevelUpModelIndex.EntityTable gates = index.getGates();
+        for (int i = 0; i < gates.size(); i++) {
+            GateStorage.setOpen(gates.getId(i), i % 3 == 0, false);
+        }
+
+        LevelUpModelIndex.EntityTable missions = index.getMissions();
+        for (int i = 0; i < missions.size(); i++) {
+            MissionStorage.setTimesCompleted(missions.getId(i), i % 4);
+        }
+
+        LevelUpModelIndex.EntityTable scores = index.getScores();
+        for (int i = 0; i < scores.size(); i++) {
+            ScoreStorage.setLatestScore(scores.getId(i), i * 10, false);
+            ScoreStorage.setRecordScore(scores.getId(i), i * 20, false);
+        }
+    }
+
+    public JSONObject buildModel() throws JSONException {
+        JSONArray worldsArr = new JSONArray();
+        for (int w = 0; w < mWorlds; w++) {
+            worldsArr.put(buildWorld(w));
+        }
+
+        JSONObject mainWorld = entity(MAIN_WORLD_ID, ModelClass.WORLD);
+        mainWorld.put(LUJSONConsts.LU_WORLDS, worldsArr);
+
+        JSONObject model = new JSONObject();
+        model.put("mainWorld", mainWorld);
+        return model;
+    }
+
+    public static String levelId(int world, int level) {
+        return "world" + world + "_level" + level;
+    }
+
+    public static String scoreId(int world, int level) {
+        return levelId(world, level) + "_score";
+    }
+
+    private JSONObject buildWorld(int world) throws JSONException {
+        JSONArray levelsArr = new JSONArray();
+        for (int l = 0; l < mLevelsPerWorld; l++) {
+            levelsArr.put(buildLevel(world, l));
+        }
+
+        JSONObject worldJSON = entity("world" + world, ModelClass.WORLD);
+        worldJSON.put(LUJSONConsts.LU_WORLDS, levelsArr);
+        return worldJSON;
+    }
+
+    private JSONObject buildLevel(int world, int level) throws JSONException {
+        String levelId = levelId(world, level);
+
+        JSONObject score = entity(scoreId(world, level), ModelClass.SCORE);
+        score.put(LUJSONConsts.LU_SCORE_HIGHBETTER, true);
+        score.put(LUJSONConsts.LU_SCORE_STARTVAL, 0);
+
+        JSONArray missionsArr = new JSONArray();
+        for (int m = 0; m < mMissionsPerLevel; m++) {
+            JSONObject mission = entity(levelId + "_mission" + m, ModelClass.RECORD_MISSION);
+            mission.put(LUJSONConsts.LU_ASSOCSCOREID, score.getString("itemId"));
+            mission.put(LUJSONConsts.LU_DESIRED_RECORD, (m + 1) * 100);
+            missionsArr.put(mission);
+        }
+
+        JSONObject levelJSON = entity(levelId, ModelClass.LEVEL);
+        levelJSON.put(LUJSONConsts.LU_SCORES, new JSONArray().put(score));
+        levelJSON.put(LUJSONConsts.LU_MISSIONS, missionsArr);
+        if (level > 0) {
+            levelJSON.put(LUJSONConsts.LU_GATE, buildGate(levelId + "_gate", world, level, mGateDepth));
+        }
+        return levelJSON;
+    }
+
+    private JSONObject buildGate(String gateId, int world, int level, int depth) throws JSONException {
+        String previousLevelId = levelId(world, level - 1);
+        if (depth <= 0) {
+            JSONObject gate = entity(gateId, ModelClass.WORLD_COMPLETION_GATE);
+            gate.put(LUJSONConsts.LU_ASSOCWORLDID, previousLevelId);
+            return gate;
+        }
+
+        JSONObject recordGate = entity(gateId + "_record", ModelClass.RECORD_GATE);
+        recordGate.put(LUJSONConsts.LU_ASSOCSCOREID, scoreId(world, level - 1));
+        recordGate.put(LUJSONConsts.LU_DESIRED_RECORD, 100 * depth);
+
+        JSONObject gatesList = entity(gateId, depth % 2 == 0 ? ModelClass.GATES_LIST_OR : ModelClass.GATES_LIST_AND);
+        gatesList.put(LUJSONConsts.LU_GATES, new JSONArray()
+                .put(buildGate(gateId + "_" + depth, world, level, depth - 1))
+                .put(recordGate));
+        return gatesList;
+    }
+
+    private static JSONObject entity(String itemId, ModelClass modelClass) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("itemId", itemId);
+        json.put("className", modelClass.getClassName());
+        return json;
+    }
+
+    private final int mWorlds;
+    private final int mLevelsPerWorld;
+    private final int mMissionsPerLevel;
+    private final int mGateDepth;
+}
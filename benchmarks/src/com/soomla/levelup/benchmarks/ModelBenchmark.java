@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.benchmarks;
+
+import com.soomla.levelup.LevelUp;
+import com.soomla.levelup.LevelUpModel;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Model parsing and the model views.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+    @Param({"10", "100"})
+    public int worlds;
+
+    @Param({"10"})
+    public int levelsPerWorld;
+
+    @Param({"2"})
+    public int missionsPerLevel;
+
+    @Param({"2"})
+    public int gateDepth;
+
+    @Setup
+    public void setUp() throws Exception {
+        new LevelUpFixture(worlds, levelsPerWorld, missionsPerLevel, gateDepth).install();
+        mModelJSON = LevelUp.getLevelUpModel();
+    }
+
+    /**
+     * Parses the stored model and compiles its index.
+     */
+    @Benchmark
+    public LevelUpModel parseModel() {
+        LevelUp.invalidateModel();
+        return LevelUp.getModel();
+    }
+
+    @Benchmark
+    public Map<String, JSONObject> getGates() {
+        return LevelUp.getGates(mModelJSON);
+    }
+
+    @Benchmark
+    public Map<String, JSONObject> getWorlds() {
+        return LevelUp.getWorlds(mModelJSON);
+    }
+
+    @Benchmark
+    public Map<String, JSONObject> getMissions() {
+        return LevelUp.getMissions(mModelJSON);
+    }
+
+    @Benchmark
+    public Map<String, JSONObject> getScores() {
+        return LevelUp.getScores(mModelJSON);
+    }
+
+    /**
+     * The shared, read-only gates view, without the copy <code>getGates()</code> makes.
+     */
+    @Benchmark
+    public Map<String, JSONObject> getGatesView() {
+        return LevelUp.getGatesView(mModelJSON);
+    }
+
+    private JSONObject mModelJSON;
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.benchmarks;
+
+import com.soomla.levelup.LevelUp;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full state export and import, in all the supported formats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateBenchmark {
+
+    @Param({"10", "100"})
+    public int worlds;
+
+    @Param({"10"})
+    public int levelsPerWorld;
+
+    @Param({"2"})
+    public int missionsPerLevel;
+
+    @Param({"2"})
+    public int gateDepth;
+
+    @Setup
+    public void setUp() throws Exception {
+        LevelUpFixture fixture = new LevelUpFixture(worlds, levelsPerWorld, missionsPerLevel, gateDepth);
+        fixture.install();
+        fixture.populate();
+
+        mState = LevelUp.getLevelUpState();
+        mStateString = mState.toString();
+        mSnapshot = LevelUp.getLevelUpStateSnapshot();
+    }
+
+    @Benchmark
+    public JSONObject getLevelUpState() {
+        return LevelUp.getLevelUpState();
+    }
+
+    @Benchmark
+    public String writeLevelUpState() throws Exception {
+        StringWriter writer = new StringWriter(mStateString.length());
+        LevelUp.writeLevelUpState(writer);
+        return writer.toString();
+    }
+
+    @Benchmark
+    public byte[] getLevelUpStateSnapshot() {
+        return LevelUp.getLevelUpStateSnapshot();
+    }
+
+    @Benchmark
+    public boolean resetLevelUpState() {
+        return LevelUp.resetLevelUpState(mState);
+    }
+
+    @Benchmark
+    public boolean resetLevelUpStateFromStream() {
+        return LevelUp.resetLevelUpState(new StringReader(mStateString));
+    }
+
+    @Benchmark
+    public boolean resetLevelUpStateFromSnapshot() {
+        return LevelUp.resetLevelUpState(mSnapshot);
+    }
+
+    /**
+     * Export followed by import, the way state is synced between devices.
+     */
+    @Benchmark
+    public boolean roundTrip() {
+        return LevelUp.resetLevelUpState(LevelUp.getLevelUpState());
+    }
+
+    private JSONObject mState;
+    private String mStateString;
+    private byte[] mSnapshot;
+}
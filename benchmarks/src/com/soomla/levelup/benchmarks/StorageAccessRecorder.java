@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.benchmarks;
+
+import com.soomla.levelup.LevelUp;
+import com.soomla.levelup.data.IStorageBackend;
+import com.soomla.levelup.data.LUKeyValueStorage;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Counts the storage accesses LevelUp makes, so <code>StorageBudgets</code>
+ * can put a budget on them, e.g.:
+ * <pre>
+ *     StorageAccessRecorder recorder = StorageAccessRecorder.install();
+ *     LevelUp.getLevelUpState();    // warm up
+ *     recorder.reset();
+ *     LevelUp.getLevelUpState();
+ *     recorder.expectAtMost(StorageAccessRecorder.Access.READ, 500)
+ *             .expectAtMost(StorageAccessRecorder.Access.MODEL_PARSE, 0);
+ *     recorder.uninstall();
+ * </pre>
+ * Only accesses that reach the storage are counted: reads served from a
+ * batch or from the write-behind queue aren't, and mutations are counted
+ * when they're written out.
+ */
+public class StorageAccessRecorder implements IStorageBackend {
+
+    public enum Access {
+        READ,
+        WRITE,
+        DELETE,
+        ENUMERATION,
+
+        /**
+         * A read of the model, which is always followed by parsing it.
+         */
+        MODEL_PARSE
+    }
+
+    /**
+     * Starts counting the accesses to the current storage.  Like any backend
+     * change, this drops everything LevelUp cached from the storage.
+     *
+     * @return the installed recorder
+     */
+    public static StorageAccessRecorder install() {
+        StorageAccessRecorder recorder = new StorageAccessRecorder(LUKeyValueStorage.getBackend());
+        LUKeyValueStorage.setBackend(recorder);
+        return recorder;
+    }
+
+    /**
+     * Stops counting, putting the wrapped storage back.
+     */
+    public void uninstall() {
+        if (LUKeyValueStorage.getBackend() == this) {
+            LUKeyValueStorage.setBackend(mBackend);
+        }
+    }
+
+    /**
+     * Zeroes all the counts.
+     */
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+    }
+
+    public int getCount(Access access) {
+        return mCounts.get(access.ordinal());
+    }
+
+    /**
+     * Checks a budget.
+     *
+     * @param access the kind of access
+     * @param max the maximal number of accesses
+     * @return this recorder, to chain more checks
+     * @throws AssertionError if there were more than <code>max</code> accesses
+     */
+    public StorageAccessRecorder expectAtMost(Access access, int max) {
+        int count = getCount(access);
+        if (count > max) {
+            throw new AssertionError("Expected at most " + max + " " + access + " accesses, got " +
+                    count + " (" + this + ")");
+        }
+        return this;
+    }
+
+    @Override
+    public String getValue(String key) {
+        count(LevelUp.DB_MODEL_KEY.equals(key) ? Access.MODEL_PARSE : Access.READ);
+        return mBackend.getValue(key);
+    }
+
+    @Override
+    public void setValue(String key, String val) {
+        count(Access.WRITE);
+        mBackend.setValue(key, val);
+    }
+
+    @Override
+    public void deleteKeyValue(String key) {
+        count(Access.DELETE);
+        mBackend.deleteKeyValue(key);
+    }
+
+    @Override
+    public List<String> getAllKeys() {
+        count(Access.ENUMERATION);
+        return mBackend.getAllKeys();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Access access : Access.values()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(access).append('=').append(getCount(access));
+        }
+        return sb.toString();
+    }
+
+    private StorageAccessRecorder(IStorageBackend backend) {
+        mBackend = backend;
+    }
+
+    private void count(Access access) {
+        mCounts.incrementAndGet(access.ordinal());
+    }
+
+    private final IStorageBackend mBackend;
+    private final AtomicIntegerArray mCounts = new AtomicIntegerArray(Access.values().length);
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.benchmarks;
+
+import com.soomla.levelup.data.GateStorage;
+import com.soomla.levelup.data.LevelStorage;
+import com.soomla.levelup.data.MissionStorage;
+import com.soomla.levelup.data.ScoreStorage;
+import com.soomla.levelup.data.WorldStorage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The get/set paths of every storage class, on a populated model.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+
+    @Param({"false", "true"})
+    public boolean packedLevels;
+
+    @Setup
+    public void setUp() throws Exception {
+        LevelUpFixture fixture = new LevelUpFixture(10, 10, 2, 2);
+        fixture.install();
+        fixture.populate();
+        if (packedLevels) {
+            LevelStorage.enablePackedLayout();
+        }
+
+        mLevelId = LevelUpFixture.levelId(5, 5);
+        mScoreId = LevelUpFixture.scoreId(5, 5);
+        mMissionId = mLevelId + "_mission0";
+        mGateId = mLevelId + "_gate";
+        mWorldId = "world5";
+    }
+
+    /**
+     * Level *
+     */
+
+    @Benchmark
+    public int levelIncTimesPlayed() {
+        return LevelStorage.incTimesPlayed(mLevelId);
+    }
+
+    @Benchmark
+    public int levelGetTimesPlayed() {
+        return LevelStorage.getTimesPlayed(mLevelId);
+    }
+
+    @Benchmark
+    public void levelSetDuration() {
+        LevelStorage.setLastDurationMillis(mLevelId, ++mCounter);
+    }
+
+    @Benchmark
+    public long levelGetDuration() {
+        return LevelStorage.getLastDurationMillis(mLevelId);
+    }
+
+    /**
+     * Score *
+     */
+
+    @Benchmark
+    public void scoreSetLatest() {
+        ScoreStorage.setLatestScore(mScoreId, ++mCounter);
+    }
+
+    @Benchmark
+    public double scoreGetLatest() {
+        return ScoreStorage.getLatestScore(mScoreId);
+    }
+
+    @Benchmark
+    public void scoreSetRecord() {
+        ScoreStorage.setRecordScore(mScoreId, ++mCounter);
+    }
+
+    @Benchmark
+    public double scoreGetRecord() {
+        return ScoreStorage.getRecordScore(mScoreId);
+    }
+
+    /**
+     * Gate *
+     */
+
+    @Benchmark
+    public void gateSetOpen() {
+        GateStorage.setOpen(mGateId, (++mCounter & 1) == 0);
+    }
+
+    @Benchmark
+    public boolean gateIsOpen() {
+        return GateStorage.isOpen(mGateId);
+    }
+
+    /**
+     * Mission *
+     */
+
+    @Benchmark
+    public void missionSetCompleted() {
+        MissionStorage.setCompleted(mMissionId, true);
+    }
+
+    @Benchmark
+    public int missionGetTimesCompleted() {
+        return MissionStorage.getTimesCompleted(mMissionId);
+    }
+
+    /**
+     * World *
+     */
+
+    @Benchmark
+    public void worldSetCompleted() {
+        WorldStorage.setCompleted(mWorldId, (++mCounter & 1) == 0);
+    }
+
+    @Benchmark
+    public boolean worldIsCompleted() {
+        return WorldStorage.isCompleted(mWorldId);
+    }
+
+    private String mLevelId;
+    private String mScoreId;
+    private String mMissionId;
+    private String mGateId;
+    private String mWorldId;
+    private long mCounter;
+}
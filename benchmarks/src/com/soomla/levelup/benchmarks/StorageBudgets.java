@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.levelup.benchmarks;
+
+import com.soomla.levelup.GateEvaluator;
+import com.soomla.levelup.LevelUp;
+import com.soomla.levelup.LevelUpModelIndex;
+import com.soomla.levelup.benchmarks.StorageAccessRecorder.Access;
+import com.soomla.levelup.data.GateStorage;
+import com.soomla.levelup.data.LUJSONConsts;
+import com.soomla.levelup.data.LevelStorage;
+import com.soomla.levelup.data.ScoreStorage;
+import com.soomla.levelup.data.WorldStorage;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks the storage access budgets of LevelUp's hot paths on a populated
+ * fixture, so an I/O regression fails loudly instead of slipping in, along
+ * with the behavior of the paths whose I/O was cut down: the state delta
+ * sync, the bitset and packed level layouts and the gate dependency index.
+ * <p/>
+ * This is a benchmark harness run on a desktop JVM, not a unit test suite.
+ * Run it with <code>ant budgets</code> (<code>ant all</code> runs it too); a
+ * broken budget or check throws an <code>AssertionError</code> and fails the
+ * build.
+ */
+public class StorageBudgets {
+
+    public static void main(String[] args) throws Exception {
+        LevelUpFixture fixture = new LevelUpFixture(WORLDS, LEVELS_PER_WORLD, MISSIONS_PER_LEVEL, GATE_DEPTH);
+        InMemoryStorageBackend backend = fixture.install();
+        fixture.populate();
+
+        checkWarmExport(backend.size());
+        checkWarmIsLevel();
+        checkDeltaSync();
+
+        checkBitsetMigration(fixture);
+        checkPackedLevelMigration(fixture);
+        checkGateIndex(fixture);
+
+        System.out.println("All storage budgets hold");
+    }
+
+    // a warm export reads every stored key at most once and never parses the model
+    private static void checkWarmExport(int storedKeys) {
+        StorageAccessRecorder recorder = StorageAccessRecorder.install();
+        try {
+            LevelUp.getLevelUpState();
+            recorder.reset();
+
+            LevelUp.getLevelUpState();
+            System.out.println("getLevelUpState() on " + storedKeys + " stored keys: " + recorder);
+            recorder.expectAtMost(Access.READ, storedKeys)
+                    .expectAtMost(Access.ENUMERATION, 0)
+                    .expectAtMost(Access.MODEL_PARSE, 0)
+                    .expectAtMost(Access.WRITE, 0)
+                    .expectAtMost(Access.DELETE, 0);
+        } finally {
+            recorder.uninstall();
+        }
+    }
+
+    // once the model is loaded, telling levels from worlds doesn't touch the storage
+    private static void checkWarmIsLevel() {
+        StorageAccessRecorder recorder = StorageAccessRecorder.install();
+        try {
+            LevelUpModelIndex.EntityTable worlds = LevelUp.getModel().getIndex().getWorlds();
+            recorder.reset();
+
+            for (int i = 0; i < worlds.size(); i++) {
+                WorldStorage.isLevel(worlds.getId(i));
+                WorldStorage.getHandle(worlds.getId(i)).isLevel();
+            }
+            System.out.println("isLevel() on " + worlds.size() + " worlds: " + recorder);
+            recorder.expectAtMost(Access.MODEL_PARSE, 0)
+                    .expectAtMost(Access.READ, 0);
+        } finally {
+            recorder.uninstall();
+        }
+    }
+
+    // a delta holds only the changed entities, and reads only them
+    private static void checkDeltaSync() throws Exception {
+        // installing the recorder swaps the backend, which starts a new change log
+        StorageAccessRecorder recorder = StorageAccessRecorder.install();
+        try {
+            String gateId = LevelUp.getModel().getIndex().getGates().getId(0);
+            String levelId = LevelUpFixture.levelId(0, 0);
+            long version = LevelUp.getLevelUpStateChangesSince(-1).getLong("version");
+
+            GateStorage.setOpen(gateId, !GateStorage.isOpen(gateId), false);
+            LevelStorage.incTimesPlayed(levelId);
+            recorder.reset();
+
+            JSONObject delta = LevelUp.getLevelUpStateChangesSince(version);
+            System.out.println("getLevelUpStateChangesSince() after 2 changes: " + recorder);
+            check(!delta.getBoolean("full"), "delta after known changes is full");
+            check(delta.getJSONObject(LUJSONConsts.LU_GATES).length() == 1 &&
+                    delta.getJSONObject(LUJSONConsts.LU_GATES).has(gateId), "delta misses the changed gate");
+            check(delta.getJSONObject(LUJSONConsts.LU_LEVELS).length() == 1 &&
+                    delta.getJSONObject(LUJSONConsts.LU_LEVELS).has(levelId), "delta misses the changed level");
+            check(delta.getJSONObject(LUJSONConsts.LU_WORLDS).length() == 0 &&
+                    delta.getJSONObject(LUJSONConsts.LU_SCORES).length() == 0, "delta holds unchanged entities");
+            recorder.expectAtMost(Access.READ, 2 * READS_PER_ENTITY)
+                    .expectAtMost(Access.ENUMERATION, 0)
+                    .expectAtMost(Access.MODEL_PARSE, 0)
+                    .expectAtMost(Access.WRITE, 0);
+
+            JSONObject next = LevelUp.getLevelUpStateChangesSince(delta.getLong("version"));
+            check(next.getJSONObject(LUJSONConsts.LU_GATES).length() == 0 &&
+                    next.getJSONObject(LUJSONConsts.LU_LEVELS).length() == 0, "delta repeats synced changes");
+        } finally {
+            recorder.uninstall();
+        }
+    }
+
+    // switching to the bitset layout keeps every flag and drops the per-entity keys
+    private static void checkBitsetMigration(LevelUpFixture fixture) throws Exception {
+        InMemoryStorageBackend backend = fixture.install();
+        fixture.populate();
+
+        LevelUpModelIndex index = LevelUp.getModel().getIndex();
+        List<String> gateIds = idsOf(index.getGates());
+        List<String> worldIds = idsOf(index.getWorlds());
+        Map<String, Boolean> openStates = GateStorage.getOpenStates(gateIds);
+        Map<String, Boolean> completedStates = WorldStorage.getCompletedStates(worldIds);
+
+        GateStorage.enableBitsetLayout();
+        WorldStorage.enableBitsetLayout();
+
+        check(GateStorage.isBitsetLayout() && WorldStorage.isBitsetLayout(), "bitset layout wasn't enabled");
+        check(openStates.equals(GateStorage.getOpenStates(gateIds)), "gates changed by the bitset migration");
+        check(completedStates.equals(WorldStorage.getCompletedStates(worldIds)), "worlds changed by the bitset migration");
+        for (String key : backend.getAllKeys()) {
+            check(!(key.startsWith(GateStorage.DB_GATE_KEY_PREFIX) && key.endsWith(".open")) &&
+                    !(key.startsWith(WorldStorage.DB_WORLD_KEY_PREFIX) && key.endsWith(".completed")),
+                    "per-entity flag left after the bitset migration: " + key);
+        }
+
+        // flags set after the switch live in the bitsets
+        String gateId = gateIds.get(1);
+        GateStorage.setOpen(gateId, !openStates.get(gateId), false);
+        check(GateStorage.isOpen(gateId) != openStates.get(gateId), "gate flag not set in the bitset layout");
+    }
+
+    // switching to the packed level layout keeps every level's values
+    private static void checkPackedLevelMigration(LevelUpFixture fixture) throws Exception {
+        InMemoryStorageBackend backend = fixture.install();
+        fixture.populate();
+
+        List<String> levelIds = new ArrayList<String>();
+        List<String> values = new ArrayList<String>();
+        LevelUpModelIndex.EntityTable worlds = LevelUp.getModel().getIndex().getWorlds();
+        for (int i = 0; i < worlds.size(); i++) {
+            String worldId = worlds.getId(i);
+            if (WorldStorage.isLevel(worldId)) {
+                levelIds.add(worldId);
+                values.add(levelValuesOf(worldId));
+            }
+        }
+
+        LevelStorage.enablePackedLayout();
+
+        check(LevelStorage.isPackedLayout(), "packed layout wasn't enabled");
+        for (int i = 0; i < levelIds.size(); i++) {
+            check(values.get(i).equals(levelValuesOf(levelIds.get(i))),
+                    "level changed by the packed migration: " + levelIds.get(i));
+        }
+        for (String key : backend.getAllKeys()) {
+            check(!key.startsWith(LevelStorage.DB_LEVEL_KEY_PREFIX) || key.endsWith(".record"),
+                    "per-field level key left after the packed migration: " + key);
+        }
+
+        String levelId = levelIds.get(0);
+        int played = LevelStorage.getTimesPlayed(levelId);
+        LevelStorage.incTimesPlayed(levelId);
+        check(LevelStorage.getTimesPlayed(levelId) == played + 1, "increment lost in the packed layout");
+    }
+
+    // a new record opens exactly the record gates whose threshold it crossed
+    private static void checkGateIndex(LevelUpFixture fixture) throws Exception {
+        fixture.install();
+
+        // the gates of level 1 in world 0, see LevelUpFixture.buildGate()
+        String scoreId = LevelUpFixture.scoreId(0, 0);
+        String listGateId = LevelUpFixture.levelId(0, 1) + "_gate";
+        String outerRecordGateId = listGateId + "_record";
+        String innerRecordGateId = listGateId + "_" + GATE_DEPTH + "_record";
+
+        GateEvaluator.enable();
+        try {
+            ScoreStorage.setRecordScore(scoreId, 150);
+            check(GateStorage.isOpen(innerRecordGateId), "record gate of 100 not opened by 150");
+            check(!GateStorage.isOpen(outerRecordGateId), "record gate of 200 opened by 150");
+            check(!GateStorage.isOpen(listGateId), "gates list opened without any open path");
+
+            ScoreStorage.setRecordScore(scoreId, 250);
+            check(GateStorage.isOpen(outerRecordGateId), "record gate of 200 not opened by 250");
+            check(GateStorage.isOpen(listGateId), "gates list not opened with its record gate open");
+        } finally {
+            GateEvaluator.disable();
+        }
+    }
+
+    private static String levelValuesOf(String levelId) {
+        return LevelStorage.getTimesStarted(levelId) + "/" + LevelStorage.getTimesPlayed(levelId) + "/" +
+                LevelStorage.getTimesCompleted(levelId) + "/" + LevelStorage.getLastDurationMillis(levelId) + "/" +
+                LevelStorage.getSlowestDurationMillis(levelId) + "/" + LevelStorage.getFastestDurationMillis(levelId);
+    }
+
+    private static List<String> idsOf(LevelUpModelIndex.EntityTable table) {
+        List<String> ids = new ArrayList<String>(table.size());
+        for (int i = 0; i < table.size(); i++) {
+            ids.add(table.getId(i));
+        }
+        return ids;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private static final int WORLDS = 50;
+    private static final int LEVELS_PER_WORLD = 10;
+    private static final int MISSIONS_PER_LEVEL = 2;
+    private static final int GATE_DEPTH = 2;
+    // the most keys an entity's values are spread over
+    private static final int READS_PER_ENTITY = 8;
+}